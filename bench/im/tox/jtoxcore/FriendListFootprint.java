@@ -0,0 +1,86 @@
+/* FriendListFootprint.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.Random;
+
+/**
+ * Measures the heap used per friend by {@link DefaultFriendList} and
+ * {@link CompactFriendList}, filled with the same friends. Each friend has a
+ * public key, a name, a status message and a status. Run with the number of
+ * friends as the only, optional, argument.
+ */
+public final class FriendListFootprint {
+
+	private static final String HEX = "0123456789ABCDEF";
+
+	private FriendListFootprint() {
+	}
+
+	public static void main(String[] args) throws FriendExistsException {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		Random random = new Random(1);
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++) {
+			StringBuilder sb = new StringBuilder(2 * ToxId.PUBLIC_KEY_SIZE);
+			for (int j = 0; j < 2 * ToxId.PUBLIC_KEY_SIZE; j++) {
+				sb.append(HEX.charAt(random.nextInt(HEX.length())));
+			}
+			ids[i] = sb.toString();
+		}
+
+		long base = usedMemory();
+		DefaultFriendList<DefaultToxFriend> defaultList = DefaultFriendList
+				.create();
+		fill(defaultList, ids);
+		long defaultBytes = usedMemory() - base;
+		System.out.println("DefaultFriendList: " + defaultBytes / count
+				+ " bytes per friend (" + defaultList.size() + " friends)");
+		defaultList = null;
+
+		base = usedMemory();
+		CompactFriendList compactList = new CompactFriendList();
+		fill(compactList, ids);
+		long compactBytes = usedMemory() - base;
+		System.out.println("CompactFriendList: " + compactBytes / count
+				+ " bytes per friend (" + compactList.size() + " friends)");
+	}
+
+	private static <F extends ToxFriend> void fill(FriendList<F> list,
+			String[] ids) throws FriendExistsException {
+		for (int i = 0; i < ids.length; i++) {
+			F friend = list.addFriend(i);
+			friend.setId(ids[i]);
+			friend.setName("Friend " + i);
+			friend.setStatusMessage("Hello from friend number " + i);
+			friend.setStatus(ToxUserStatus.TOX_USERSTATUS_AWAY);
+			friend.setOnline(i % 3 == 0);
+		}
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,136 @@
+/* ToxCodecBenchmark.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link ToxCodec} with the JDK's UTF-8 conversion in
+ * {@link String#getBytes(String)} and {@link String#String(byte[], String)}.
+ * The buffer variants encode into and decode from a direct buffer, the way
+ * JTox passes text to and from the native library.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ToxCodecBenchmark {
+
+	private static final String UTF8 = "UTF-8";
+
+	@Param({ "ascii", "latin", "cjk", "emoji" })
+	public String text;
+
+	@Param({ "16", "128", "1024" })
+	public int length;
+
+	private String string;
+	private byte[] bytes;
+	private ByteBuffer direct;
+
+	@Setup
+	public void setup() throws UnsupportedEncodingException {
+		String unit;
+		if ("ascii".equals(text)) {
+			unit = "Hello, Tox! ";
+		} else if ("latin".equals(text)) {
+			unit = "Grüße aus Köln ";
+		} else if ("cjk".equals(text)) {
+			unit = "你好世界 ";
+		} else {
+			unit = "hi 😀 ";
+		}
+		StringBuilder sb = new StringBuilder(length + unit.length());
+		while (sb.length() < length) {
+			sb.append(unit);
+		}
+		this.string = sb.substring(0, length);
+		this.bytes = this.string.getBytes(UTF8);
+		this.direct = ByteBuffer.allocateDirect(3 * length);
+	}
+
+	@Benchmark
+	public byte[] encodeJdk() throws UnsupportedEncodingException {
+		return this.string.getBytes(UTF8);
+	}
+
+	@Benchmark
+	public byte[] encodeCodec() {
+		return ToxCodec.encode(this.string);
+	}
+
+	@Benchmark
+	public int encodeJdkIntoBuffer() throws UnsupportedEncodingException {
+		this.direct.clear();
+		this.direct.put(this.string.getBytes(UTF8));
+		return this.direct.position();
+	}
+
+	@Benchmark
+	public int encodeCodecIntoBuffer() {
+		this.direct.clear();
+		return ToxCodec.encode(this.string, this.direct);
+	}
+
+	@Benchmark
+	public String decodeJdk() throws UnsupportedEncodingException {
+		return new String(this.bytes, UTF8);
+	}
+
+	@Benchmark
+	public String decodeCodec() {
+		return ToxCodec.decode(this.bytes, 0, this.bytes.length);
+	}
+
+	@Benchmark
+	public String decodeJdkFromBuffer() throws UnsupportedEncodingException {
+		this.direct.clear();
+		this.direct.put(this.bytes);
+		this.direct.flip();
+		byte[] copy = new byte[this.bytes.length];
+		this.direct.get(copy);
+		return new String(copy, UTF8);
+	}
+
+	@Benchmark
+	public String decodeCodecFromBuffer() {
+		this.direct.clear();
+		this.direct.put(this.bytes);
+		this.direct.flip();
+		return ToxCodec.decode(this.direct, this.bytes.length);
+	}
+}
@@ -26,19 +26,25 @@
 #include <windows.h>
 #else
 #include <arpa/inet.h>
+#include <pthread.h>
 #endif
 #include <tox/tox.h>
 
 #include "JTox.h"
 #include "callbacks.h"
 
-#define ADDR_SIZE_HEX (TOX_FRIEND_ADDRESS_SIZE * 2 + 1)
+#define EVENT_HEADER_SIZE (1 + 3 * sizeof(int32_t))
+#define EVENT_BUFFER_INITIAL_SIZE 4096
+#define EVENT_BUFFER_FLUSH_SIZE 65536
+#define FRIEND_SNAPSHOT_HEADER_SIZE (sizeof(int32_t) + 2 * sizeof(uint8_t) + 2 * sizeof(uint16_t))
+#define FRIEND_SNAPSHOT_MAX_SIZE \
+    (FRIEND_SNAPSHOT_HEADER_SIZE + TOX_CLIENT_ID_SIZE + TOX_MAX_NAME_LENGTH + TOX_MAX_STATUSMESSAGE_LENGTH)
 #define UNUSED(x) (void)(x)
 
 #ifdef ANDROID
-#define ATTACH_THREAD(ptr,env) (*ptr->jvm)->AttachCurrentThread(ptr->jvm, &env, 0)
+#define ATTACH_THREAD(jvm,env) (*jvm)->AttachCurrentThreadAsDaemon(jvm, &env, 0)
 #else
-#define ATTACH_THREAD(ptr,env) (*ptr->jvm)->AttachCurrentThread(ptr->jvm, (void **) &env, 0)
+#define ATTACH_THREAD(jvm,env) (*jvm)->AttachCurrentThreadAsDaemon(jvm, (void **) &env, 0)
 #endif
 
 /**
@@ -46,40 +52,348 @@
  */
 
 /**
- * Convert a given binary address to a human-readable, \0-terminated hexadecimal string
+ * Get the address of the given offset into a direct buffer, or NULL if the buffer is not direct
  */
-void addr_to_hex(uint8_t *addr, char *buf)
+static uint8_t *direct_address(JNIEnv *env, jobject buffer, jint offset)
 {
-    uint32_t i;
+    uint8_t *address = (*env)->GetDirectBufferAddress(env, buffer);
+    return address == NULL ? NULL : address + offset;
+}
+
+/**
+ * Length of text returned by toxcore, without the trailing \0 toxcore may include in the length. Negative lengths,
+ * which toxcore uses to signal errors, are treated as empty text.
+ */
+static uint16_t trim_text(const uint8_t *text, int length)
+{
+    if (length <= 0) {
+        return 0;
+    }
+
+    return text[length - 1] == '\0' ? length - 1 : length;
+}
+
+/**
+ * Copy text returned by toxcore into a new byte array, dropping the trailing \0 toxcore may include in the length.
+ * The bytes are decoded as standard UTF-8 on the Java side, never with NewStringUTF, which expects modified UTF-8.
+ */
+static jbyteArray text_array(JNIEnv *env, const jbyte *text, int length)
+{
+    jbyteArray array;
 
-    for (i = 0; i < TOX_FRIEND_ADDRESS_SIZE; i++) {
-        char xx[3];
-        snprintf(xx, sizeof(xx), "%02X", addr[i] & 0xff);
-        strcat(buf, xx);
+    length = trim_text((const uint8_t *) text, length);
+    array = (*env)->NewByteArray(env, length);
+
+    if (array != NULL) {
+        (*env)->SetByteArrayRegion(env, array, 0, length, text);
     }
+
+    return array;
 }
 
 /**
  * End Utilities section
  */
 
+/**
+ * Begin JNI cache section
+ */
+
+static jni_cache_t cache;
+
+#ifndef WIN32
+/**
+ * Per-thread JNIEnv for native threads that were attached by us. The key destructor detaches them on thread exit.
+ */
+static pthread_key_t env_key;
+#endif
+
+#define CACHE_CLASS(env, member, name) \
+    if (!cache_class(env, &cache.member, name)) return JNI_ERR
+#define CACHE_METHOD(env, clazz, member, name, sig) \
+    if ((cache.member = (*env)->GetMethodID(env, cache.clazz, name, sig)) == NULL) return JNI_ERR
+
+/**
+ * Look up the class with the given name and store a global reference to it
+ */
+static int cache_class(JNIEnv *env, jclass *dest, const char *name)
+{
+    jclass local = (*env)->FindClass(env, name);
+
+    if (local == NULL) {
+        return 0;
+    }
+
+    *dest = (*env)->NewGlobalRef(env, local);
+    (*env)->DeleteLocalRef(env, local);
+    return *dest != NULL;
+}
+
+/**
+ * Store a global reference to the ToxUserStatus constant with the given name
+ */
+static int cache_userstatus(JNIEnv *env, TOX_USERSTATUS status, const char *name)
+{
+    jfieldID id = (*env)->GetStaticFieldID(env, cache.userstatus_class, name, "Lim/tox/jtoxcore/ToxUserStatus;");
+    jobject local;
+
+    if (id == NULL) {
+        return 0;
+    }
+
+    local = (*env)->GetStaticObjectField(env, cache.userstatus_class, id);
+    cache.userstatus[status] = (*env)->NewGlobalRef(env, local);
+    (*env)->DeleteLocalRef(env, local);
+    return cache.userstatus[status] != NULL;
+}
+
+/**
+ * Map a native user status to the cached ToxUserStatus constant
+ */
+static jobject userstatus_to_java(TOX_USERSTATUS status)
+{
+    switch (status) {
+        case TOX_USERSTATUS_NONE:
+        case TOX_USERSTATUS_AWAY:
+        case TOX_USERSTATUS_BUSY:
+            return cache.userstatus[status];
+
+        default:
+            return cache.userstatus[TOX_USERSTATUS_INVALID];
+    }
+}
+
+#ifndef WIN32
+/**
+ * Detach a thread that was attached in jni_env once it terminates
+ */
+static void detach_thread(void *env)
+{
+    UNUSED(env);
+    (*cache.jvm)->DetachCurrentThread(cache.jvm);
+}
+#endif
+
+/**
+ * Get the JNIEnv for the current thread. While tox_do runs, the env of the calling Java thread is already known and
+ * returned directly. Otherwise, threads the JVM knows about are found through GetEnv, and native threads are attached
+ * as daemons once and remembered until they exit.
+ */
+static JNIEnv *jni_env(tox_jni_globals_t *ptr)
+{
+    JNIEnv *env;
+
+    if (ptr->env != NULL) {
+        return ptr->env;
+    }
+
+#ifndef WIN32
+    env = pthread_getspecific(env_key);
+
+    if (env != NULL) {
+        return env;
+    }
+#endif
+
+    switch ((*ptr->jvm)->GetEnv(ptr->jvm, (void **) &env, JNI_VERSION_1_6)) {
+        case JNI_OK:
+            return env;
+
+        case JNI_EDETACHED:
+            if (ATTACH_THREAD(ptr->jvm, env) != JNI_OK) {
+                return NULL;
+            }
+
+#ifndef WIN32
+            pthread_setspecific(env_key, env);
+#endif
+            return env;
+
+        default:
+            return NULL;
+    }
+}
+
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *jvm, void *reserved)
+{
+    JNIEnv *env;
+    UNUSED(reserved);
+
+    if ((*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+        return JNI_ERR;
+    }
+
+    cache.jvm = jvm;
+
+#ifndef WIN32
+
+    if (pthread_key_create(&env_key, detach_thread) != 0) {
+        return JNI_ERR;
+    }
+
+#endif
+
+    CACHE_CLASS(env, jtox_class, "im/tox/jtoxcore/JTox");
+    CACHE_CLASS(env, userstatus_class, "im/tox/jtoxcore/ToxUserStatus");
+
+    CACHE_METHOD(env, jtox_class, jtox_on_events, "onEvents", "(Ljava/nio/ByteBuffer;I)V");
+
+    if (!cache_userstatus(env, TOX_USERSTATUS_NONE, "TOX_USERSTATUS_NONE")
+            || !cache_userstatus(env, TOX_USERSTATUS_AWAY, "TOX_USERSTATUS_AWAY")
+            || !cache_userstatus(env, TOX_USERSTATUS_BUSY, "TOX_USERSTATUS_BUSY")
+            || !cache_userstatus(env, TOX_USERSTATUS_INVALID, "TOX_USERSTATUS_INVALID")) {
+        return JNI_ERR;
+    }
+
+    return JNI_VERSION_1_6;
+}
+
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *jvm, void *reserved)
+{
+    JNIEnv *env;
+    int i;
+    UNUSED(reserved);
+
+    if ((*jvm)->GetEnv(jvm, (void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+        return;
+    }
+
+    for (i = 0; i <= TOX_USERSTATUS_INVALID; i++) {
+        if (cache.userstatus[i] != NULL) {
+            (*env)->DeleteGlobalRef(env, cache.userstatus[i]);
+        }
+    }
+
+    if (cache.userstatus_class != NULL) {
+        (*env)->DeleteGlobalRef(env, cache.userstatus_class);
+    }
+
+    if (cache.jtox_class != NULL) {
+        (*env)->DeleteGlobalRef(env, cache.jtox_class);
+    }
+
+#ifndef WIN32
+    pthread_key_delete(env_key);
+#endif
+    memset(&cache, 0, sizeof(cache));
+}
+
+/**
+ * End JNI cache section
+ */
+
+/**
+ * Begin event buffer section
+ */
+
+/**
+ * Hand all buffered events to Java in a single call to JTox.onEvents, then reset the buffer. The ByteBuffer passed to
+ * Java points directly at the native buffer and is only valid for the duration of the call. If an exception is
+ * pending, the events are kept and delivered with the next flush.
+ */
+static void flush_events(JNIEnv *env, tox_jni_globals_t *globals)
+{
+    jobject buffer;
+
+    if (globals->events.count == 0 || (*env)->ExceptionCheck(env)) {
+        return;
+    }
+
+    buffer = (*env)->NewDirectByteBuffer(env, globals->events.data, globals->events.size);
+
+    if (buffer == NULL) {
+        return;
+    }
+
+    (*env)->CallVoidMethod(env, globals->jtox, cache.jtox_on_events, buffer, (jint) globals->events.count);
+    (*env)->DeleteLocalRef(env, buffer);
+    globals->events.size = 0;
+    globals->events.count = 0;
+}
+
+/**
+ * Append an event to the buffer of the given instance. The payload is the concatenation of payload1 and payload2,
+ * either of which may be NULL. If the buffer grew past EVENT_BUFFER_FLUSH_SIZE, the pending events are flushed to
+ * Java first, so memory use stays bounded even while tox_do produces a flood of events.
+ */
+static void append_event(tox_jni_globals_t *globals, tox_event_type_t type, int32_t friendnumber, int32_t value,
+                         const uint8_t *payload1, uint32_t length1, const uint8_t *payload2, uint32_t length2)
+{
+    tox_event_buffer_t *events = &globals->events;
+    uint32_t length = length1 + length2;
+    uint32_t needed = EVENT_HEADER_SIZE + length;
+    uint8_t *pos;
+
+    if (events->size + needed > EVENT_BUFFER_FLUSH_SIZE && events->count > 0) {
+        JNIEnv *env = jni_env(globals);
+
+        if (env != NULL) {
+            flush_events(env, globals);
+        }
+    }
+
+    if (events->size + needed > events->capacity) {
+        uint32_t capacity = events->capacity == 0 ? EVENT_BUFFER_INITIAL_SIZE : events->capacity;
+        uint8_t *data;
+
+        while (events->size + needed > capacity) {
+            capacity *= 2;
+        }
+
+        data = realloc(events->data, capacity);
+
+        if (data == NULL) {
+            return;
+        }
+
+        events->data = data;
+        events->capacity = capacity;
+    }
+
+    pos = events->data + events->size;
+    *pos++ = (uint8_t) type;
+    memcpy(pos, &friendnumber, sizeof(int32_t));
+    pos += sizeof(int32_t);
+    memcpy(pos, &value, sizeof(int32_t));
+    pos += sizeof(int32_t);
+    memcpy(pos, &length, sizeof(uint32_t));
+    pos += sizeof(uint32_t);
+
+    if (length1 > 0) {
+        memcpy(pos, payload1, length1);
+        pos += length1;
+    }
+
+    if (length2 > 0) {
+        memcpy(pos, payload2, length2);
+    }
+
+    events->size += needed;
+    events->count++;
+}
+
+/**
+ * Strip the trailing \0 toxcore includes in the length of names, messages and status messages
+ */
+static uint32_t text_length(uint16_t length)
+{
+    return length == 0 ? 0 : length - 1;
+}
+
+/**
+ * End event buffer section
+ */
+
 /**
  * Begin maintenance section
  */
 
 JNIEXPORT jlong JNICALL Java_im_tox_jtoxcore_JTox_tox_1new(JNIEnv *env, jobject jobj)
 {
-    tox_jni_globals_t *globals = malloc(sizeof(tox_jni_globals_t));
-    JavaVM *jvm;
-    jclass clazz = (*env)->GetObjectClass(env, jobj);
-    jfieldID id = (*env)->GetFieldID(env, clazz, "handler", "Lim/tox/jtoxcore/callbacks/CallbackHandler;");
-    jobject handler = (*env)->GetObjectField(env, jobj, id);
-    jobject handlerRef = (*env)->NewGlobalRef(env, handler);
+    tox_jni_globals_t *globals = calloc(1, sizeof(tox_jni_globals_t));
     jobject jtoxRef = (*env)->NewGlobalRef(env, jobj);
-    (*env)->GetJavaVM(env, &jvm);
     globals->tox = tox_new(1);
-    globals->jvm = jvm;
-    globals->handler = handlerRef;
+    globals->jvm = cache.jvm;
     globals->jtox = jtoxRef;
 
     tox_callback_friend_action(globals->tox, callback_action, globals);
@@ -121,9 +435,25 @@ JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1bootstrap_1from_1address(J
 
 JNIEXPORT void JNICALL Java_im_tox_jtoxcore_JTox_tox_1do(JNIEnv *env, jobject obj, jlong messenger)
 {
-    tox_do(((tox_jni_globals_t *) ((intptr_t) messenger))->tox);
+    tox_jni_globals_t *globals = (tox_jni_globals_t *) ((intptr_t) messenger);
+
+    globals->env = env;
+    tox_do(globals->tox);
+    flush_events(env, globals);
+    globals->env = NULL;
+    UNUSED(obj);
+}
+
+JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1do_1interval(JNIEnv *env, jobject obj, jlong messenger)
+{
     UNUSED(env);
     UNUSED(obj);
+#ifdef HAVE_TOX_DO_INTERVAL
+    return tox_do_interval(((tox_jni_globals_t *) ((intptr_t) messenger))->tox);
+#else
+    UNUSED(messenger);
+    return -1;
+#endif
 }
 
 JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1isconnected(JNIEnv *env, jobject obj, jlong messenger)
@@ -137,7 +467,8 @@ JNIEXPORT void JNICALL Java_im_tox_jtoxcore_JTox_tox_1kill(JNIEnv *env, jobject
 {
     tox_jni_globals_t *globals = (tox_jni_globals_t *) ((intptr_t) messenger);
     tox_kill(globals->tox);
-    (*env)->DeleteGlobalRef(env, globals->handler);
+    (*env)->DeleteGlobalRef(env, globals->jtox);
+    free(globals->events.data);
     free(globals);
     UNUSED(jobj);
 }
@@ -156,14 +487,52 @@ JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1save(JNIEnv *env, jo
     return bytes;
 }
 
+JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1size(JNIEnv *env, jobject obj, jlong messenger)
+{
+    UNUSED(env);
+    UNUSED(obj);
+    return tox_size(((tox_jni_globals_t *) ((intptr_t) messenger))->tox);
+}
+
+JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1save_1direct(JNIEnv *env, jobject obj, jlong messenger,
+        jobject buffer, jint offset)
+{
+    uint8_t *data = direct_address(env, buffer, offset);
+
+    UNUSED(obj);
+
+    if (data == NULL) {
+        return JNI_TRUE;
+    }
+
+    tox_save(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, data);
+    return JNI_FALSE;
+}
+
 JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1load(JNIEnv *env, jobject obj, jlong messenger,
         jbyteArray bytes, jint length)
 {
     jbyte *data = (*env)->GetByteArrayElements(env, bytes, 0);
+    jboolean ret = tox_load(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, (uint8_t *) data, length) == 0 ?
+                   JNI_FALSE : JNI_TRUE;
+    (*env)->ReleaseByteArrayElements(env, bytes, data, JNI_ABORT);
 
     UNUSED(obj);
-    return tox_load(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, (uint8_t *) data, length) == 0 ?
-           JNI_FALSE : JNI_TRUE;
+    return ret;
+}
+
+JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1load_1direct(JNIEnv *env, jobject obj, jlong messenger,
+        jobject buffer, jint offset, jint length)
+{
+    uint8_t *data = direct_address(env, buffer, offset);
+
+    UNUSED(obj);
+
+    if (data == NULL) {
+        return JNI_TRUE;
+    }
+
+    return tox_load(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, data, length) == 0 ? JNI_FALSE : JNI_TRUE;
 }
 
 /**
@@ -202,36 +571,18 @@ JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1add_1friend_1norequest(JNI
     return ret;
 }
 
-JNIEXPORT jstring JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1address(JNIEnv *env, jobject obj, jlong messenger)
+JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1address(JNIEnv *env, jobject obj, jlong messenger)
 {
-    jstring result;
+    jbyteArray result;
     uint8_t addr[TOX_FRIEND_ADDRESS_SIZE];
-    char id[ADDR_SIZE_HEX] = { 0 };
     tox_get_address(((tox_jni_globals_t *)((intptr_t) messenger))->tox, addr);
-    addr_to_hex(addr, id);
 
     UNUSED(obj);
-    result = (*env)->NewStringUTF(env, id);
+    result = (*env)->NewByteArray(env, TOX_FRIEND_ADDRESS_SIZE);
+    (*env)->SetByteArrayRegion(env, result, 0, TOX_FRIEND_ADDRESS_SIZE, (jbyte *) addr);
     return result;
 }
 
-JNIEXPORT jstring JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1client_1id(JNIEnv *env, jobject obj, jlong messenger,
-        jint friendnumber)
-{
-    uint8_t address[TOX_FRIEND_ADDRESS_SIZE];
-    jstring result;
-    UNUSED(obj);
-
-    if (tox_get_client_id(((tox_jni_globals_t *)((intptr_t) messenger))->tox, friendnumber, address) != 0) {
-        return 0;
-    } else {
-        char _address[ADDR_SIZE_HEX] = { 0 };
-        addr_to_hex(address, _address);
-        result = (*env)->NewStringUTF(env, _address);
-        return result;
-    }
-}
-
 JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1del_1friend(JNIEnv *env, jobject obj, jlong messenger,
         jint friendnumber)
 {
@@ -240,18 +591,18 @@ JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1del_1friend(JNIEnv *en
     return tox_del_friend(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber) == 0 ? 0 : 1;
 }
 
-JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1send_1message(JNIEnv *env, jobject obj, jlong messenger,
-        jint friendnumber, jbyteArray message, jint length)
+JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1send_1message_1direct(JNIEnv *env, jobject obj,
+        jlong messenger, jint friendnumber, jobject message, jint offset, jint length)
 {
-    jbyte *_message = (*env)->GetByteArrayElements(env, message, 0);
-
-    uint32_t mess_id = tox_send_message(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber,
-                                        (uint8_t *) _message,
-                                        length);
-    (*env)->ReleaseByteArrayElements(env, message, _message, JNI_ABORT);
+    uint8_t *_message = direct_address(env, message, offset);
 
     UNUSED(obj);
-    return mess_id;
+
+    if (_message == NULL) {
+        return 0;
+    }
+
+    return tox_send_message(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber, _message, length);
 }
 
 JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1send_1message_1withid(JNIEnv *env, jobject obj, jlong messenger,
@@ -267,38 +618,41 @@ JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1send_1message_1withid(JNIE
     return mess_id;
 }
 
-JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1send_1action(JNIEnv *env, jobject obj, jlong messenger,
-        jint friendnumber, jbyteArray action, jint length)
+JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1send_1action_1direct(JNIEnv *env, jobject obj,
+        jlong messenger, jint friendnumber, jobject action, jint offset, jint length)
 {
-    jbyte *_action = (*env)->GetByteArrayElements(env, action, 0);
-
-    jboolean ret = tox_send_action(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber, (uint8_t *) _action,
-                                   length);
-    (*env)->ReleaseByteArrayElements(env, action, _action, JNI_ABORT);
+    uint8_t *_action = direct_address(env, action, offset);
 
     UNUSED(obj);
-    return ret;
+
+    if (_action == NULL) {
+        return JNI_FALSE;
+    }
+
+    return tox_send_action(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber, _action, length);
 }
 
-JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1name(JNIEnv *env, jobject obj, jlong messenger,
-        jbyteArray newname, jint length)
+JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1name_1direct(JNIEnv *env, jobject obj,
+        jlong messenger, jobject newname, jint offset, jint length)
 {
-    jbyte *_newname = (*env)->GetByteArrayElements(env, newname, 0);
-
-    jboolean ret =
-        tox_set_name(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, (uint8_t *) _newname, length) == 0 ?
-        JNI_FALSE : JNI_TRUE;
-    (*env)->ReleaseByteArrayElements(env, newname, _newname, JNI_ABORT);
+    uint8_t *_newname = direct_address(env, newname, offset);
 
     UNUSED(obj);
-    return ret;
+
+    if (_newname == NULL) {
+        return JNI_TRUE;
+    }
+
+    return tox_set_name(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, _newname, length) == 0 ?
+           JNI_FALSE : JNI_TRUE;
 }
 
-JNIEXPORT jstring JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1self_1name(JNIEnv *env, jobject obj, jlong messenger)
+JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1self_1name(JNIEnv *env, jobject obj,
+        jlong messenger)
 {
-    jstring _name;
-    uint8_t *name = malloc(TOX_MAX_NAME_LENGTH);
-    uint16_t length = tox_get_self_name(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, name,
+    jbyteArray _name;
+    jbyte *name = malloc(TOX_MAX_NAME_LENGTH);
+    uint16_t length = tox_get_self_name(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, (uint8_t *) name,
                                         TOX_MAX_NAME_LENGTH);
 
     if (length == 0) {
@@ -306,25 +660,26 @@ JNIEXPORT jstring JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1self_1name(JNIEnv
         return 0;
     }
 
-    _name = (*env)->NewStringUTF(env, (char *) name);
+    _name = text_array(env, name, length);
     free(name);
 
     UNUSED(obj);
     return _name;
 }
 
-JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1status_1message(JNIEnv *env, jobject obj,
-        jlong messenger, jbyteArray newstatus, jint length)
+JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1status_1message_1direct(JNIEnv *env, jobject obj,
+        jlong messenger, jobject newstatus, jint offset, jint length)
 {
-    jbyte *_newstatus = (*env)->GetByteArrayElements(env, newstatus, 0);
-    jboolean ret =
-        tox_set_status_message(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, (uint8_t *) _newstatus, length) == 0 ?
-        JNI_FALSE :
-        JNI_TRUE;
-    (*env)->ReleaseByteArrayElements(env, newstatus, _newstatus, JNI_ABORT);
+    uint8_t *_newstatus = direct_address(env, newstatus, offset);
 
     UNUSED(obj);
-    return ret;
+
+    if (_newstatus == NULL) {
+        return JNI_TRUE;
+    }
+
+    return tox_set_status_message(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, _newstatus, length) == 0 ?
+           JNI_FALSE : JNI_TRUE;
 }
 
 JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1friend_1connection_1status(JNIEnv *env, jobject obj,
@@ -337,35 +692,6 @@ JNIEXPORT jint JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1friend_1connection_1s
     return ret;
 }
 
-JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1friend_1exists(JNIEnv *env, jobject obj, jlong messenger,
-        jint friendnumber)
-{
-    uint8_t ret = tox_friend_exists(((tox_jni_globals_t *)((intptr_t)messenger))->tox, friendnumber);
-
-    UNUSED(env);
-    UNUSED(obj);
-    return ret;
-}
-
-JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1name(JNIEnv *env, jobject obj, jlong messenger,
-        jint friendnumber)
-{
-    jbyte *name = malloc(TOX_MAX_NAME_LENGTH);
-    int ret = tox_get_name(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber, (uint8_t *) name);
-
-    UNUSED(obj);
-
-    if (ret == -1) {
-        free(name);
-        return 0;
-    } else {
-        jbyteArray _name = (*env)->NewByteArray(env, ret);
-        (*env)->SetByteArrayRegion(env, _name, 0, ret, name);
-        free(name);
-        return _name;
-    }
-}
-
 JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1user_1status(JNIEnv *env, jobject obj, jlong messenger,
         jint userstatus)
 {
@@ -376,27 +702,6 @@ JNIEXPORT jboolean JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1user_1status(JNIE
            JNI_FALSE : JNI_TRUE;
 }
 
-JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1status_1message(JNIEnv *env, jobject obj,
-        jlong messenger, jint friendnumber)
-{
-    Tox *tox = ((tox_jni_globals_t *) ((intptr_t) messenger))->tox;
-    int size = tox_get_status_message_size(tox, friendnumber);
-    jbyte *statusmessage = malloc(size);
-    int ret = tox_get_status_message(tox, friendnumber, (uint8_t *) statusmessage, size);
-
-    UNUSED(obj);
-
-    if (ret == -1) {
-        free(statusmessage);
-        return 0;
-    } else {
-        jbyteArray _statusmessage = (*env)->NewByteArray(env, ret);
-        (*env)->SetByteArrayRegion(env, _statusmessage, 0, ret, statusmessage);
-        free(statusmessage);
-        return _statusmessage;
-    }
-}
-
 JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1getselfstatusmessage(JNIEnv *env, jobject obj,
         jlong messenger)
 {
@@ -411,77 +716,20 @@ JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1getselfstatusmessage
         free(status);
         return 0;
     } else {
-        jbyteArray _status = (*env)->NewByteArray(env, length);
-        (*env)->SetByteArrayRegion(env, _status, 0, length, status);
+        jbyteArray _status = text_array(env, status, length);
         free(status);
         return _status;
     }
 }
 
-JNIEXPORT jobject JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1user_1status(JNIEnv *env, jobject obj, jlong messenger,
-        jint friendnumber)
-{
-    Tox *tox = ((tox_jni_globals_t *) ((intptr_t) messenger))->tox;
-    char *status;
-    jclass us_enum;
-    jfieldID fieldID;
-
-    switch (tox_get_user_status(tox, friendnumber)) {
-        case TOX_USERSTATUS_NONE:
-            status = "TOX_USERSTATUS_NONE";
-            break;
-
-        case TOX_USERSTATUS_AWAY:
-            status = "TOX_USERSTATUS_AWAY";
-            break;
-
-        case TOX_USERSTATUS_BUSY:
-            status = "TOX_USERSTATUS_BUSY";
-            break;
-
-        default:
-            status = "TOX_USERSTATUS_INVALID";
-            break;
-    }
-
-    us_enum = (*env)->FindClass(env, "Lim/tox/jtoxcore/ToxUserStatus");
-    fieldID = (*env)->GetStaticFieldID(env, us_enum, status, "Lim/tox/jtoxcore/ToxUserStatus");
-
-    UNUSED(obj);
-    return (*env)->GetStaticObjectField(env, us_enum, fieldID);
-}
-
 JNIEXPORT jobject JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1self_1user_1status(JNIEnv *env, jobject obj,
         jlong messenger)
 {
     Tox *tox = ((tox_jni_globals_t *) ((intptr_t) messenger))->tox;
-    char *status;
-    jclass us_enum;
-    jfieldID fieldID;
-
-    switch (tox_get_self_user_status(tox)) {
-        case TOX_USERSTATUS_NONE:
-            status = "TOX_USERSTATUS_NONE";
-            break;
-
-        case TOX_USERSTATUS_AWAY:
-            status = "TOX_USERSTATUS_AWAY";
-            break;
-
-        case TOX_USERSTATUS_BUSY:
-            status = "TOX_USERSTATUS_BUSY";
-            break;
-
-        default:
-            status = "TOX_USERSTATUS_INVALID";
-            break;
-    }
-
-    us_enum = (*env)->FindClass(env, "Lim/tox/jtoxcore/ToxUserStatus");
-    fieldID = (*env)->GetStaticFieldID(env, us_enum, status, "Lim/tox/jtoxcore/ToxUserStatus");
 
+    UNUSED(env);
     UNUSED(obj);
-    return (*env)->GetStaticObjectField(env, us_enum, fieldID);
+    return userstatus_to_java(tox_get_self_user_status(tox));
 }
 
 JNIEXPORT void JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1sends_1receipts(JNIEnv *env, jobject obj, jlong messenger,
@@ -492,18 +740,75 @@ JNIEXPORT void JNICALL Java_im_tox_jtoxcore_JTox_tox_1set_1sends_1receipts(JNIEn
     tox_set_sends_receipts(((tox_jni_globals_t *) ((intptr_t) messenger))->tox, friendnumber, send);
 }
 
-JNIEXPORT jintArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1friendlist(JNIEnv *env, jobject obj, jlong messenger)
+/**
+ * Fetch everything we know about all friends in one call. The returned array starts with the number of friends as
+ * int32, followed by one record per friend: int32 friendnumber, uint8 user status, uint8 connection status, uint16 name
+ * length, uint16 status message length, the client id, the name and the status message. Numbers are in native byte
+ * order, names and status messages are UTF-8 without a trailing \0.
+ */
+JNIEXPORT jbyteArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1friend_1snapshot(JNIEnv *env, jobject obj,
+        jlong messenger)
 {
     Tox *tox = ((tox_jni_globals_t *) ((intptr_t) messenger))->tox;
     uint32_t length = tox_count_friendlist(tox);
-    int *list = malloc(length);
-    uint32_t actual_length = tox_get_friendlist(tox, list, length);
-    jintArray arr = (*env)->NewIntArray(env, actual_length);
-    (*env)->SetIntArrayRegion(env, arr, 0, actual_length, (jint *) list);
-    free(list);
+    int *list = malloc(length * sizeof(int) + 1);
+    uint8_t *data = malloc(sizeof(int32_t) + length * FRIEND_SNAPSHOT_MAX_SIZE);
+    uint8_t *pos = data + sizeof(int32_t);
+    int32_t count = 0;
+    jbyteArray result = NULL;
+    uint32_t i;
 
     UNUSED(obj);
-    return arr;
+
+    if (list == NULL || data == NULL) {
+        free(list);
+        free(data);
+        return NULL;
+    }
+
+    length = tox_get_friendlist(tox, list, length);
+
+    for (i = 0; i < length; ++i) {
+        int32_t friendnumber = list[i];
+        TOX_USERSTATUS userstatus = tox_get_user_status(tox, friendnumber);
+        uint8_t status = userstatus > TOX_USERSTATUS_INVALID ? TOX_USERSTATUS_INVALID : userstatus;
+        uint8_t connected = tox_get_friend_connection_status(tox, friendnumber) == 1;
+        uint8_t *id = pos + FRIEND_SNAPSHOT_HEADER_SIZE;
+        uint8_t *name = id + TOX_CLIENT_ID_SIZE;
+        uint8_t *statusmessage;
+        uint16_t name_length, statusmessage_length;
+
+        if (tox_get_client_id(tox, friendnumber, id) != 0) {
+            continue;
+        }
+
+        name_length = trim_text(name, tox_get_name(tox, friendnumber, name));
+        statusmessage = name + name_length;
+        statusmessage_length = trim_text(statusmessage, tox_get_status_message(tox, friendnumber, statusmessage,
+                                         TOX_MAX_STATUSMESSAGE_LENGTH));
+
+        memcpy(pos, &friendnumber, sizeof(int32_t));
+        pos += sizeof(int32_t);
+        *pos++ = status;
+        *pos++ = connected;
+        memcpy(pos, &name_length, sizeof(uint16_t));
+        pos += sizeof(uint16_t);
+        memcpy(pos, &statusmessage_length, sizeof(uint16_t));
+        pos += sizeof(uint16_t);
+        pos += TOX_CLIENT_ID_SIZE + name_length + statusmessage_length;
+        ++count;
+    }
+
+    memcpy(data, &count, sizeof(int32_t));
+    result = (*env)->NewByteArray(env, pos - data);
+
+    if (result != NULL) {
+        (*env)->SetByteArrayRegion(env, result, 0, pos - data, (jbyte *) data);
+    }
+
+    free(list);
+    free(data);
+    return result;
 }
 
 /**
@@ -516,200 +821,50 @@ JNIEXPORT jintArray JNICALL Java_im_tox_jtoxcore_JTox_tox_1get_1friendlist(JNIEn
 
 static void callback_friendrequest(uint8_t *pubkey, uint8_t *message, uint16_t length, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass clazz;
-    jmethodID meth;
-    char buf[ADDR_SIZE_HEX] = { 0 };
-    jstring _pubkey;
-    jbyteArray _message;
-
-    ATTACH_THREAD(ptr, env);
-    clazz = (*env)->GetObjectClass(env, ptr->handler);
-    meth = (*env)->GetMethodID(env, clazz, "onFriendRequest", "(Ljava/lang/String;[B)V");
-
-    addr_to_hex(pubkey, buf);
-    _pubkey = (*env)->NewStringUTF(env, buf);
-    _message = (*env)->NewByteArray(env, length - 1);
-    (*env)->SetByteArrayRegion(env, _message, 0, length - 1, (jbyte *) message);
-
-    (*env)->CallVoidMethod(env, ptr->handler, meth, _pubkey, _message);
+    append_event((tox_jni_globals_t *) rptr, EVENT_FRIEND_REQUEST, -1, 0, pubkey, TOX_CLIENT_ID_SIZE, message,
+                 text_length(length));
 }
 
 static void callback_friendmessage(Tox *tox, int friendnumber, uint8_t *message, uint16_t length, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass class;
-    jmethodID meth;
-    jbyteArray _message;
-
-    ATTACH_THREAD(ptr, env);
-    class = (*env)->GetObjectClass(env, ptr->handler);
-    meth = (*env)->GetMethodID(env, class, "onMessage", "(I[B)V");
-
-    _message = (*env)->NewByteArray(env, length - 1);
-    (*env)->SetByteArrayRegion(env, _message, 0, length - 1, (jbyte *) message);
-    (*env)->CallVoidMethod(env, ptr->handler, meth, friendnumber, _message);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_MESSAGE, friendnumber, 0, message, text_length(length), NULL, 0);
     UNUSED(tox);
 }
 
 static void callback_action(Tox *tox, int friendnumber, uint8_t *action, uint16_t length, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass class;
-    jmethodID meth;
-    jbyteArray _action;
-
-    ATTACH_THREAD(ptr, env);
-    class = (*env)->GetObjectClass(env, ptr->handler);
-    meth = (*env)->GetMethodID(env, class, "onAction", "(I[B)V");
-
-    _action = (*env)->NewByteArray(env, length - 1);
-    (*env)->SetByteArrayRegion(env, _action, 0, length - 1, (jbyte *) action);
-    (*env)->CallVoidMethod(env, ptr->handler, meth, friendnumber, _action);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_ACTION, friendnumber, 0, action, text_length(length), NULL, 0);
     UNUSED(tox);
 }
 
 static void callback_namechange(Tox *tox, int friendnumber, uint8_t *newname, uint16_t length, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass handlerClass;
-    jmethodID handlerMeth;
-
-    jclass jtoxclass;
-    jmethodID jToxmeth;
-    jbyteArray _newname;
-
-    ATTACH_THREAD(ptr, env);
-    handlerClass = (*env)->GetObjectClass(env, ptr->handler);
-    handlerMeth = (*env)->GetMethodID(env, handlerClass, "onNameChange", "(I[B)V");
-
-    jtoxclass = (*env)->GetObjectClass(env, ptr->jtox);
-    jToxmeth = (*env)->GetMethodID(env, jtoxclass, "onNameChange", "(I[B)V");
-
-    _newname = (*env)->NewByteArray(env, length - 1);
-    (*env)->SetByteArrayRegion(env, _newname, 0, length - 1, (jbyte *) newname);
-    (*env)->CallVoidMethod(env, ptr->jtox, jToxmeth, friendnumber, _newname);
-    (*env)->CallVoidMethod(env, ptr->handler, handlerMeth, friendnumber, _newname);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_NAME_CHANGE, friendnumber, 0, newname, text_length(length), NULL,
+                 0);
     UNUSED(tox);
 }
 
 static void callback_statusmessage(Tox *tox, int friendnumber, uint8_t *newstatus, uint16_t length, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass handlerclass;
-    jmethodID handlermeth;
-
-    jclass jtoxclass;
-    jmethodID jtoxmeth;
-    jbyteArray _newstatus;
-
-    ATTACH_THREAD(ptr, env);
-    handlerclass = (*env)->GetObjectClass(env, ptr->handler);
-    handlermeth = (*env)->GetMethodID(env, handlerclass, "onStatusMessage", "(I[B)V");
-    jtoxclass = (*env)->GetObjectClass(env, ptr->jtox);
-    jtoxmeth = (*env)->GetMethodID(env, jtoxclass, "onStatusMessage", "(I[B)V");
-
-    _newstatus = (*env)->NewByteArray(env, length - 1);
-    (*env)->SetByteArrayRegion(env, _newstatus, 0, length - 1, (jbyte *) newstatus);
-    (*env)->CallVoidMethod(env, ptr->jtox, jtoxmeth, friendnumber, _newstatus);
-    (*env)->CallVoidMethod(env, ptr->handler, handlermeth, friendnumber, _newstatus);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_STATUS_MESSAGE, friendnumber, 0, newstatus, text_length(length),
+                 NULL, 0);
     UNUSED(tox);
 }
 
 static void callback_userstatus(Tox *tox, int friendnumber, TOX_USERSTATUS status, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass handlerclass;
-    jmethodID handlermeth;
-
-    jclass jtoxclass;
-    jmethodID jtoxmeth;
-
-    jclass us_enum;
-    char *enum_name;
-
-    jfieldID fieldID;
-    jobject enum_val;
-
-    ATTACH_THREAD(ptr, env);
-    handlerclass = (*env)->GetObjectClass(env, ptr->handler);
-    handlermeth = (*env)->GetMethodID(env, handlerclass, "onUserStatus",
-                                      "(ILim/tox/jtoxcore/ToxUserStatus;)V");
-    jtoxclass = (*env)->GetObjectClass(env, ptr->jtox);
-    jtoxmeth = (*env)->GetMethodID(env, jtoxclass, "onUserStatus", "(ILim/tox/jtoxcore/ToxUserStatus;)V");
-    us_enum = (*env)->FindClass(env, "Lim/tox/jtoxcore/ToxUserStatus;");
-
-    switch (status) {
-        case TOX_USERSTATUS_NONE:
-            enum_name = "TOX_USERSTATUS_NONE";
-            break;
-
-        case TOX_USERSTATUS_AWAY:
-            enum_name = "TOX_USERSTATUS_AWAY";
-            break;
-
-        case TOX_USERSTATUS_BUSY:
-            enum_name = "TOX_USERSTATUS_BUSY";
-            break;
-
-        default:
-            enum_name = "TOX_USERSTATUS_INVALID";
-            break;
-    }
-
-    fieldID = (*env)->GetStaticFieldID(env, us_enum, enum_name, "Lim/tox/jtoxcore/ToxUserStatus;");
-    enum_val = (*env)->GetStaticObjectField(env, us_enum, fieldID);
-    (*env)->CallVoidMethod(env, ptr->jtox, jtoxmeth, friendnumber, enum_val);
-    (*env)->CallVoidMethod(env, ptr->handler, handlermeth, friendnumber, enum_val);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_USER_STATUS, friendnumber, status, NULL, 0, NULL, 0);
     UNUSED(tox);
 }
 
 static void callback_read_receipt(Tox *tox, int friendnumber, uint32_t receipt, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass handlerclass;
-    jmethodID handlermeth;
-
-    ATTACH_THREAD(ptr, env);
-    handlerclass = (*env)->GetObjectClass(env, ptr->handler);
-    handlermeth = (*env)->GetMethodID(env, handlerclass, "onReadReceipt", "(II)V");
-    (*env)->CallVoidMethod(env, ptr->handler, handlermeth, friendnumber, receipt);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_READ_RECEIPT, friendnumber, receipt, NULL, 0, NULL, 0);
     UNUSED(tox);
 }
 
 static void callback_connectionstatus(Tox *tox, int friendnumber, uint8_t newstatus, void *rptr)
 {
-    tox_jni_globals_t *ptr = (tox_jni_globals_t *) rptr;
-    JNIEnv *env;
-    jclass handlerclass;
-    jmethodID handlermeth;
-
-    jclass jtoxclass;
-    jmethodID jtoxmeth;
-
-    jboolean _newstatus;
-
-    ATTACH_THREAD(ptr, env);
-    handlerclass = (*env)->GetObjectClass(env, ptr->handler);
-    handlermeth = (*env)->GetMethodID(env, handlerclass, "onConnectionStatus", "(IZ)V");
-    jtoxclass = (*env)->GetObjectClass(env, ptr->jtox);
-    jtoxmeth = (*env)->GetMethodID(env, jtoxclass, "onConnectionStatus", "(IZ)V");
-    _newstatus = newstatus == 0 ? JNI_FALSE : JNI_TRUE;
-    (*env)->CallVoidMethod(env, ptr->jtox, jtoxmeth, friendnumber, _newstatus);
-    (*env)->CallVoidMethod(env, ptr->handler, handlermeth, friendnumber, _newstatus);
-
+    append_event((tox_jni_globals_t *) rptr, EVENT_CONNECTION_STATUS, friendnumber, newstatus, NULL, 0, NULL, 0);
     UNUSED(tox);
 }
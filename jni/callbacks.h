@@ -18,11 +18,51 @@
  *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
  *
  */
+/**
+ * Classes, method IDs and enum constants resolved once in JNI_OnLoad. All jclass and jobject members are global
+ * references, so they stay valid for every thread and every callback until JNI_OnUnload.
+ */
+typedef struct {
+    JavaVM *jvm;
+
+    jclass jtox_class;
+    jmethodID jtox_on_events;
+
+    jclass userstatus_class;
+    jobject userstatus[TOX_USERSTATUS_INVALID + 1];
+} jni_cache_t;
+
+/**
+ * Event types as they appear in the event buffer. Must match the EVENT_ constants in JTox.java
+ */
+typedef enum {
+    EVENT_FRIEND_REQUEST,
+    EVENT_MESSAGE,
+    EVENT_ACTION,
+    EVENT_NAME_CHANGE,
+    EVENT_STATUS_MESSAGE,
+    EVENT_USER_STATUS,
+    EVENT_READ_RECEIPT,
+    EVENT_CONNECTION_STATUS
+} tox_event_type_t;
+
+/**
+ * Events collected during tox_do. Each record is packed in native byte order as
+ * uint8_t type, int32_t friendnumber, int32_t value, uint32_t length, followed by length bytes of payload.
+ */
+typedef struct {
+    uint8_t *data;
+    uint32_t size;
+    uint32_t capacity;
+    uint32_t count;
+} tox_event_buffer_t;
+
 typedef struct {
     Tox *tox;
     JavaVM *jvm;
-    jobject handler;
+    JNIEnv *env; /* env of the thread currently inside tox_do, NULL otherwise */
     jobject jtox;
+    tox_event_buffer_t events;
 } tox_jni_globals_t;
 
 static void callback_friendrequest(uint8_t *, uint8_t *, uint16_t, void *);
@@ -0,0 +1,535 @@
+/* CompactFriendList.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link FriendList} for very large numbers of friends, storing their state
+ * in a few primitive arrays instead of one object per friend with a String per
+ * field:
+ * <ul>
+ * <li>Public keys are packed into a single byte array, 32 bytes per friend,
+ * and indexed by an open addressing table of friend numbers.</li>
+ * <li>Names and status messages are stored as UTF-8 in a single shared byte
+ * array, with an offset and a length per friend. Changed texts are appended,
+ * and the array is compacted once most of it is unused.</li>
+ * <li>Presence, connection status and user status share a single byte per
+ * friend.</li>
+ * </ul>
+ * Friends are handed out as {@link CompactToxFriend} views, which are created
+ * on every lookup. Strings are only created when a getter is called.
+ * <p/>
+ * Lookups by name and status scan the compact arrays; use
+ * {@link DefaultFriendList} if those have to be faster than that.
+ * <p/>
+ * All methods are thread safe. They synchronize on the list.
+ */
+public class CompactFriendList implements FriendList<CompactToxFriend> {
+
+	private static final int PRESENT = 1;
+	private static final int ONLINE = 2;
+	private static final int HAS_KEY = 4;
+	private static final int STATUS_SHIFT = 4;
+	private static final int STATUS_MASK = 0x30;
+
+	private static final ToxUserStatus[] STATUS_VALUES = ToxUserStatus.values();
+
+	/**
+	 * Minimum size of the text storage before it is compacted
+	 */
+	private static final int MIN_COMPACT_SIZE = 4096;
+
+	private int capacity;
+	private int size;
+	private byte[] flags;
+	private byte[] keys;
+
+	/**
+	 * Offsets of the names and status messages in text, -1 for null
+	 */
+	private int[] nameOffsets;
+	private int[] statusMessageOffsets;
+	private char[] nameLengths;
+	private char[] statusMessageLengths;
+
+	private byte[] text = new byte[1024];
+	private int textSize;
+	private int textGarbage;
+
+	/**
+	 * Open addressing table of friend numbers plus one, keyed by public key.
+	 * A slot is free if it holds 0.
+	 */
+	private int[] keyTable = new int[32];
+	private int keyCount;
+
+	/**
+	 * Creates an empty list
+	 */
+	public CompactFriendList() {
+		resize(16);
+	}
+
+	@Override
+	public synchronized CompactToxFriend getByFriendNumber(int friendnumber) {
+		return isPresent(friendnumber) ? new CompactToxFriend(this,
+				friendnumber) : null;
+	}
+
+	@Override
+	public synchronized CompactToxFriend getById(String id) {
+		if (id == null) {
+			return null;
+		}
+		byte[] key;
+		try {
+			key = ToxId.fromHex(id).getPublicKey().bytes();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		int friendnumber = findKey(key);
+		return friendnumber < 0 ? null : new CompactToxFriend(this,
+				friendnumber);
+	}
+
+	@Override
+	public synchronized List<CompactToxFriend> getByName(String name,
+			boolean ignorecase) {
+		List<CompactToxFriend> result = new ArrayList<CompactToxFriend>();
+		byte[] encoded = ToxCodec.encode(name);
+		for (int i = 0; i < this.capacity; i++) {
+			if (!isPresent(i) || this.nameOffsets[i] < 0) {
+				continue;
+			}
+			boolean match;
+			if (ignorecase) {
+				match = name.equalsIgnoreCase(getName(i));
+			} else {
+				match = this.nameLengths[i] == encoded.length
+						&& regionEquals(this.text, this.nameOffsets[i],
+								encoded);
+			}
+			if (match) {
+				result.add(new CompactToxFriend(this, i));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized List<CompactToxFriend> searchFriend(String partial) {
+		String folded = DefaultFriendList.foldName(partial);
+		List<CompactToxFriend> result = new ArrayList<CompactToxFriend>();
+		for (int i = 0; i < this.capacity; i++) {
+			if (isPresent(i) && this.nameOffsets[i] >= 0
+					&& DefaultFriendList.foldName(getName(i)).contains(folded)) {
+				result.add(new CompactToxFriend(this, i));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized List<CompactToxFriend> getByStatus(ToxUserStatus status) {
+		int wanted = PRESENT | ONLINE | (status.ordinal() << STATUS_SHIFT);
+		return select(PRESENT | ONLINE | STATUS_MASK, wanted);
+	}
+
+	@Override
+	public synchronized List<CompactToxFriend> getOnlineFriends() {
+		return select(PRESENT | ONLINE, PRESENT | ONLINE);
+	}
+
+	@Override
+	public synchronized List<CompactToxFriend> getOfflineFriends() {
+		return select(PRESENT | ONLINE, PRESENT);
+	}
+
+	@Override
+	public synchronized List<CompactToxFriend> all() {
+		return select(PRESENT, PRESENT);
+	}
+
+	private List<CompactToxFriend> select(int mask, int wanted) {
+		List<CompactToxFriend> result = new ArrayList<CompactToxFriend>();
+		for (int i = 0; i < this.capacity; i++) {
+			if ((this.flags[i] & mask) == wanted) {
+				result.add(new CompactToxFriend(this, i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of friends in the list
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	@Override
+	public synchronized CompactToxFriend addFriend(int friendnumber)
+			throws FriendExistsException {
+		if (isPresent(friendnumber)) {
+			throw new FriendExistsException(friendnumber);
+		}
+		return add(friendnumber);
+	}
+
+	@Override
+	public synchronized CompactToxFriend addFriendIfNotExists(int friendnumber) {
+		if (isPresent(friendnumber)) {
+			return new CompactToxFriend(this, friendnumber);
+		}
+		return add(friendnumber);
+	}
+
+	@Override
+	public synchronized void removeFriend(int friendnumber) {
+		if (!isPresent(friendnumber)) {
+			return;
+		}
+		if ((this.flags[friendnumber] & HAS_KEY) != 0) {
+			removeKey(friendnumber);
+		}
+		this.textGarbage += length(this.nameOffsets[friendnumber],
+				this.nameLengths[friendnumber])
+				+ length(this.statusMessageOffsets[friendnumber],
+						this.statusMessageLengths[friendnumber]);
+		this.nameOffsets[friendnumber] = -1;
+		this.statusMessageOffsets[friendnumber] = -1;
+		this.flags[friendnumber] = 0;
+		this.size--;
+	}
+
+	private CompactToxFriend add(int friendnumber) {
+		if (friendnumber < 0) {
+			throw new IllegalArgumentException("Negative friend number: "
+					+ friendnumber);
+		}
+		if (friendnumber >= this.capacity) {
+			resize(Math.max(friendnumber + 1, this.capacity * 2));
+		}
+		this.flags[friendnumber] = PRESENT;
+		this.size++;
+		return new CompactToxFriend(this, friendnumber);
+	}
+
+	private void resize(int capacity) {
+		this.flags = Arrays.copyOf(this.flags == null ? new byte[0]
+				: this.flags, capacity);
+		this.keys = Arrays.copyOf(this.keys == null ? new byte[0] : this.keys,
+				capacity * ToxId.PUBLIC_KEY_SIZE);
+		this.nameOffsets = grow(this.nameOffsets, capacity);
+		this.statusMessageOffsets = grow(this.statusMessageOffsets, capacity);
+		this.nameLengths = Arrays.copyOf(this.nameLengths == null ? new char[0]
+				: this.nameLengths, capacity);
+		this.statusMessageLengths = Arrays.copyOf(
+				this.statusMessageLengths == null ? new char[0]
+						: this.statusMessageLengths, capacity);
+		this.capacity = capacity;
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int old = array == null ? 0 : array.length;
+		int[] grown = array == null ? new int[capacity] : Arrays.copyOf(array,
+				capacity);
+		Arrays.fill(grown, old, capacity, -1);
+		return grown;
+	}
+
+	private boolean isPresent(int friendnumber) {
+		return friendnumber >= 0 && friendnumber < this.capacity
+				&& (this.flags[friendnumber] & PRESENT) != 0;
+	}
+
+	/*
+	 * Accessors for CompactToxFriend
+	 */
+
+	synchronized String getId(int friendnumber) {
+		ToxId key = getPublicKey(friendnumber);
+		return key == null ? null : key.toHexString();
+	}
+
+	synchronized ToxId getPublicKey(int friendnumber) {
+		if (!isPresent(friendnumber)
+				|| (this.flags[friendnumber] & HAS_KEY) == 0) {
+			return null;
+		}
+		int offset = friendnumber * ToxId.PUBLIC_KEY_SIZE;
+		return ToxId.wrap(Arrays.copyOfRange(this.keys, offset, offset
+				+ ToxId.PUBLIC_KEY_SIZE));
+	}
+
+	synchronized String getName(int friendnumber) {
+		if (!isPresent(friendnumber)) {
+			return null;
+		}
+		return getText(this.nameOffsets[friendnumber],
+				this.nameLengths[friendnumber]);
+	}
+
+	synchronized String getStatusMessage(int friendnumber) {
+		if (!isPresent(friendnumber)) {
+			return null;
+		}
+		return getText(this.statusMessageOffsets[friendnumber],
+				this.statusMessageLengths[friendnumber]);
+	}
+
+	synchronized ToxUserStatus getStatus(int friendnumber) {
+		if (!isPresent(friendnumber)) {
+			return ToxUserStatus.TOX_USERSTATUS_NONE;
+		}
+		int status = (this.flags[friendnumber] & STATUS_MASK) >>> STATUS_SHIFT;
+		return STATUS_VALUES[status];
+	}
+
+	synchronized boolean isOnline(int friendnumber) {
+		return isPresent(friendnumber)
+				&& (this.flags[friendnumber] & ONLINE) != 0;
+	}
+
+	synchronized void setId(int friendnumber, String id) {
+		if (!isPresent(friendnumber)) {
+			return;
+		}
+		if ((this.flags[friendnumber] & HAS_KEY) != 0) {
+			removeKey(friendnumber);
+			this.flags[friendnumber] &= ~HAS_KEY;
+		}
+		if (id != null) {
+			byte[] key = ToxId.fromHex(id).getPublicKey().bytes();
+			System.arraycopy(key, 0, this.keys, friendnumber
+					* ToxId.PUBLIC_KEY_SIZE, ToxId.PUBLIC_KEY_SIZE);
+			this.flags[friendnumber] |= HAS_KEY;
+			addKey(friendnumber);
+		}
+	}
+
+	synchronized void setName(int friendnumber, String name) {
+		if (!isPresent(friendnumber)) {
+			return;
+		}
+		this.textGarbage += length(this.nameOffsets[friendnumber],
+				this.nameLengths[friendnumber]);
+		this.nameOffsets[friendnumber] = -1;
+		if (name != null) {
+			byte[] encoded = ToxCodec.encode(name);
+			this.nameOffsets[friendnumber] = appendText(encoded);
+			this.nameLengths[friendnumber] = (char) encoded.length;
+		}
+	}
+
+	synchronized void setStatusMessage(int friendnumber, String statusMessage) {
+		if (!isPresent(friendnumber)) {
+			return;
+		}
+		this.textGarbage += length(this.statusMessageOffsets[friendnumber],
+				this.statusMessageLengths[friendnumber]);
+		this.statusMessageOffsets[friendnumber] = -1;
+		if (statusMessage != null) {
+			byte[] encoded = ToxCodec.encode(statusMessage);
+			this.statusMessageOffsets[friendnumber] = appendText(encoded);
+			this.statusMessageLengths[friendnumber] = (char) encoded.length;
+		}
+	}
+
+	synchronized void setStatus(int friendnumber, ToxUserStatus status) {
+		if (isPresent(friendnumber)) {
+			int cleared = this.flags[friendnumber] & ~STATUS_MASK;
+			this.flags[friendnumber] = (byte) (cleared | status.ordinal()
+					<< STATUS_SHIFT);
+		}
+	}
+
+	synchronized void setOnline(int friendnumber, boolean online) {
+		if (isPresent(friendnumber)) {
+			if (online) {
+				this.flags[friendnumber] |= ONLINE;
+			} else {
+				this.flags[friendnumber] &= ~ONLINE;
+			}
+		}
+	}
+
+	/*
+	 * Text storage
+	 */
+
+	/**
+	 * @return the size of the text storage in bytes, used by tests to check
+	 *         that it is compacted
+	 */
+	synchronized int getTextCapacity() {
+		return this.text.length;
+	}
+
+	private String getText(int offset, char length) {
+		return offset < 0 ? null : ToxCodec.decode(this.text, offset, length);
+	}
+
+	private static int length(int offset, char length) {
+		return offset < 0 ? 0 : length;
+	}
+
+	/**
+	 * Append UTF-8 text to the storage, compacting or growing it first if it
+	 * is full
+	 * 
+	 * @return the offset of the text
+	 */
+	private int appendText(byte[] encoded) {
+		if (encoded.length > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("Text too long: "
+					+ encoded.length + " bytes");
+		}
+		if (this.textSize + encoded.length > this.text.length) {
+			int live = this.textSize - this.textGarbage;
+			if (this.textGarbage > live && this.textSize >= MIN_COMPACT_SIZE) {
+				compactText(Math.max(this.text.length,
+						2 * (live + encoded.length)));
+			}
+			if (this.textSize + encoded.length > this.text.length) {
+				this.text = Arrays.copyOf(this.text, Math.max(
+						this.text.length * 2, this.textSize + encoded.length));
+			}
+		}
+		int offset = this.textSize;
+		System.arraycopy(encoded, 0, this.text, offset, encoded.length);
+		this.textSize += encoded.length;
+		return offset;
+	}
+
+	/**
+	 * Copy all texts still in use into a new array, dropping the unused ones
+	 */
+	private void compactText(int capacity) {
+		byte[] compacted = new byte[capacity];
+		int position = 0;
+		for (int i = 0; i < this.capacity; i++) {
+			if (this.nameOffsets[i] >= 0) {
+				System.arraycopy(this.text, this.nameOffsets[i], compacted,
+						position, this.nameLengths[i]);
+				this.nameOffsets[i] = position;
+				position += this.nameLengths[i];
+			}
+			if (this.statusMessageOffsets[i] >= 0) {
+				System.arraycopy(this.text, this.statusMessageOffsets[i],
+						compacted, position, this.statusMessageLengths[i]);
+				this.statusMessageOffsets[i] = position;
+				position += this.statusMessageLengths[i];
+			}
+		}
+		this.text = compacted;
+		this.textSize = position;
+		this.textGarbage = 0;
+	}
+
+	private static boolean regionEquals(byte[] array, int offset, byte[] other) {
+		for (int i = 0; i < other.length; i++) {
+			if (array[offset + i] != other[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Public key table
+	 */
+
+	private int hashKey(byte[] key, int offset) {
+		// Public keys are random, their first bytes hash well enough
+		int h = (key[offset] & 0xff) | (key[offset + 1] & 0xff) << 8
+				| (key[offset + 2] & 0xff) << 16 | (key[offset + 3] & 0xff) << 24;
+		return h ^ (h >>> 16);
+	}
+
+	private int findKey(byte[] key) {
+		int mask = this.keyTable.length - 1;
+		int i = hashKey(key, 0) & mask;
+		int slot;
+		while ((slot = this.keyTable[i]) != 0) {
+			int offset = (slot - 1) * ToxId.PUBLIC_KEY_SIZE;
+			if (regionEquals(this.keys, offset, key)) {
+				return slot - 1;
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void addKey(int friendnumber) {
+		if (2 * (this.keyCount + 1) > this.keyTable.length) {
+			int[] old = this.keyTable;
+			this.keyTable = new int[old.length * 2];
+			this.keyCount = 0;
+			for (int slot : old) {
+				if (slot != 0) {
+					addKey(slot - 1);
+				}
+			}
+		}
+		int mask = this.keyTable.length - 1;
+		int i = hashKey(this.keys, friendnumber * ToxId.PUBLIC_KEY_SIZE) & mask;
+		while (this.keyTable[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		this.keyTable[i] = friendnumber + 1;
+		this.keyCount++;
+	}
+
+	private void removeKey(int friendnumber) {
+		int mask = this.keyTable.length - 1;
+		int i = hashKey(this.keys, friendnumber * ToxId.PUBLIC_KEY_SIZE) & mask;
+		while (this.keyTable[i] != 0) {
+			if (this.keyTable[i] == friendnumber + 1) {
+				break;
+			}
+			i = (i + 1) & mask;
+		}
+		if (this.keyTable[i] == 0) {
+			return;
+		}
+		// Backward shift deletion
+		int free = i;
+		while (true) {
+			i = (i + 1) & mask;
+			int slot = this.keyTable[i];
+			if (slot == 0) {
+				break;
+			}
+			int home = hashKey(this.keys, (slot - 1) * ToxId.PUBLIC_KEY_SIZE)
+					& mask;
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				this.keyTable[free] = slot;
+				free = i;
+			}
+		}
+		this.keyTable[free] = 0;
+		this.keyCount--;
+	}
+}
@@ -0,0 +1,134 @@
+/* CompactToxFriend.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+/**
+ * View of a friend stored in a {@link CompactFriendList}. The view holds no
+ * state of its own: its getters read from the list, and its setters write to
+ * it. Views are created on every lookup and are cheap to discard; two views
+ * of the same friend of the same list are equal.
+ * <p/>
+ * Once the friend is removed from the list, the getters return null, false and
+ * {@link ToxUserStatus#TOX_USERSTATUS_NONE}, and the setters do nothing. If the
+ * friend number is reused for a new friend afterwards, the view shows the new
+ * friend.
+ */
+public final class CompactToxFriend implements ToxFriend {
+
+	private final CompactFriendList list;
+	private final int friendnumber;
+
+	CompactToxFriend(CompactFriendList list, int friendnumber) {
+		this.list = list;
+		this.friendnumber = friendnumber;
+	}
+
+	@Override
+	public String getId() {
+		return this.list.getId(this.friendnumber);
+	}
+
+	/**
+	 * @return the public key, or null if it is not known
+	 */
+	public ToxId getPublicKey() {
+		return this.list.getPublicKey(this.friendnumber);
+	}
+
+	@Override
+	public String getName() {
+		return this.list.getName(this.friendnumber);
+	}
+
+	@Override
+	public String getStatusMessage() {
+		return this.list.getStatusMessage(this.friendnumber);
+	}
+
+	@Override
+	public ToxUserStatus getStatus() {
+		return this.list.getStatus(this.friendnumber);
+	}
+
+	@Override
+	public boolean isOnline() {
+		return this.list.isOnline(this.friendnumber);
+	}
+
+	@Override
+	public int getFriendnumber() {
+		return this.friendnumber;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the id is not a hexadecimal public key or address
+	 */
+	@Override
+	public void setId(String id) {
+		this.list.setId(this.friendnumber, id);
+	}
+
+	@Override
+	public void setName(String name) {
+		this.list.setName(this.friendnumber, name);
+	}
+
+	@Override
+	public void setStatusMessage(String statusMessage) {
+		this.list.setStatusMessage(this.friendnumber, statusMessage);
+	}
+
+	@Override
+	public void setStatus(ToxUserStatus status) {
+		this.list.setStatus(this.friendnumber, status);
+	}
+
+	@Override
+	public void setOnline(boolean online) {
+		this.list.setOnline(this.friendnumber, online);
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this.list) * 31 + this.friendnumber;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof CompactToxFriend)) {
+			return false;
+		}
+		CompactToxFriend other = (CompactToxFriend) obj;
+		return this.list == other.list
+				&& this.friendnumber == other.friendnumber;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactToxFriend[" + this.friendnumber + ", " + getName() + "]";
+	}
+}
@@ -0,0 +1,461 @@
+/* ConcurrentFriendList.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safe {@link FriendList} for applications that query friends from
+ * other threads while the thread calling {@link JTox#doTox()} updates them.
+ * <p/>
+ * Reads never lock and never wait for writers: friends are stored in an
+ * array indexed by friend number that is replaced, not locked, when it has to
+ * grow, the public key index is a ConcurrentHashMap, and the buckets of the
+ * name index are immutable arrays that are replaced on change. The fields of
+ * the friends are volatile. Writers, that is adding and removing friends and
+ * the setters of the friends, are serialized by a lock that readers never
+ * take.
+ * <p/>
+ * Single reads see the latest state of each friend, but a read across many
+ * friends may see some of them before and some after a concurrent change. Use
+ * {@link #snapshot()} to read the state of all friends at a single point in
+ * time.
+ * <p/>
+ * {@link DefaultFriendList} answers status and name searches faster, but
+ * locks for every call.
+ * 
+ * @param <F>
+ *            Friend type to use with the list
+ */
+public class ConcurrentFriendList<F extends DefaultToxFriend> extends
+		FriendIndex implements FriendList<F> {
+
+	/**
+	 * The state of a friend at the time of a
+	 * {@link ConcurrentFriendList#snapshot()}
+	 * 
+	 * @param <F>
+	 *            the friend type
+	 */
+	public static final class FriendState<F extends ToxFriend> {
+		private final F friend;
+		private final String id;
+		private final String name;
+		private final String statusMessage;
+		private final ToxUserStatus status;
+		private final boolean online;
+
+		FriendState(F friend) {
+			this.friend = friend;
+			this.id = friend.getId();
+			this.name = friend.getName();
+			this.statusMessage = friend.getStatusMessage();
+			this.status = friend.getStatus();
+			this.online = friend.isOnline();
+		}
+
+		/**
+		 * @return the friend, whose getters return its current state
+		 */
+		public F getFriend() {
+			return this.friend;
+		}
+
+		/**
+		 * @return the friendnumber
+		 */
+		public int getFriendnumber() {
+			return this.friend.getFriendnumber();
+		}
+
+		/**
+		 * @return the id
+		 */
+		public String getId() {
+			return this.id;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return the statusMessage
+		 */
+		public String getStatusMessage() {
+			return this.statusMessage;
+		}
+
+		/**
+		 * @return the status
+		 */
+		public ToxUserStatus getStatus() {
+			return this.status;
+		}
+
+		/**
+		 * @return the online
+		 */
+		public boolean isOnline() {
+			return this.online;
+		}
+	}
+
+	private static final Object[] EMPTY = new Object[0];
+
+	private final FriendFactory<F> factory;
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private volatile AtomicReferenceArray<F> friends = new AtomicReferenceArray<F>(
+			16);
+	private volatile int size;
+	private final ConcurrentMap<String, F> byId = new ConcurrentHashMap<String, F>();
+	private final ConcurrentMap<String, Object[]> byName = new ConcurrentHashMap<String, Object[]>();
+
+	/**
+	 * Creates a list of {@link DefaultToxFriend}s
+	 * 
+	 * @return the new list
+	 */
+	public static ConcurrentFriendList<DefaultToxFriend> create() {
+		return new ConcurrentFriendList<DefaultToxFriend>(
+				new FriendFactory<DefaultToxFriend>() {
+					@Override
+					public DefaultToxFriend create(int friendnumber) {
+						return new DefaultToxFriend(friendnumber);
+					}
+				});
+	}
+
+	/**
+	 * Creates a list whose friends are created by the given factory
+	 * 
+	 * @param factory
+	 *            the factory
+	 */
+	public ConcurrentFriendList(FriendFactory<F> factory) {
+		if (factory == null) {
+			throw new NullPointerException("factory");
+		}
+		this.factory = factory;
+	}
+
+	@Override
+	public F getByFriendNumber(int friendnumber) {
+		AtomicReferenceArray<F> friends = this.friends;
+		if (friendnumber < 0 || friendnumber >= friends.length()) {
+			return null;
+		}
+		return friends.get(friendnumber);
+	}
+
+	@Override
+	public F getById(String id) {
+		return id == null ? null : this.byId.get(normalizeId(id));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<F> getByName(String name, boolean ignorecase) {
+		Object[] bucket = this.byName.get(DefaultFriendList.foldName(name));
+		if (bucket == null) {
+			return new ArrayList<F>(0);
+		}
+		List<F> result = new ArrayList<F>(bucket.length);
+		for (Object o : bucket) {
+			F friend = (F) o;
+			String current = friend.getName();
+			if (ignorecase ? name.equalsIgnoreCase(current) : name
+					.equals(current)) {
+				result.add(friend);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<F> searchFriend(String partial) {
+		String folded = DefaultFriendList.foldName(partial);
+		List<F> result = new ArrayList<F>();
+		AtomicReferenceArray<F> friends = this.friends;
+		for (int i = 0; i < friends.length(); i++) {
+			F friend = friends.get(i);
+			if (friend != null) {
+				String name = friend.getName();
+				if (name != null
+						&& DefaultFriendList.foldName(name).contains(folded)) {
+					result.add(friend);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<F> getByStatus(ToxUserStatus status) {
+		List<F> result = new ArrayList<F>();
+		AtomicReferenceArray<F> friends = this.friends;
+		for (int i = 0; i < friends.length(); i++) {
+			F friend = friends.get(i);
+			if (friend != null && friend.isOnline()
+					&& friend.getStatus() == status) {
+				result.add(friend);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<F> getOnlineFriends() {
+		return filterOnline(true);
+	}
+
+	@Override
+	public List<F> getOfflineFriends() {
+		return filterOnline(false);
+	}
+
+	private List<F> filterOnline(boolean online) {
+		List<F> result = new ArrayList<F>();
+		AtomicReferenceArray<F> friends = this.friends;
+		for (int i = 0; i < friends.length(); i++) {
+			F friend = friends.get(i);
+			if (friend != null && friend.isOnline() == online) {
+				result.add(friend);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<F> all() {
+		List<F> result = new ArrayList<F>(this.size);
+		AtomicReferenceArray<F> friends = this.friends;
+		for (int i = 0; i < friends.length(); i++) {
+			F friend = friends.get(i);
+			if (friend != null) {
+				result.add(friend);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of friends in the list
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Get the state of all friends at a single point in time. Changes to the
+	 * list and its friends wait while the snapshot is taken; reads do not.
+	 * 
+	 * @return an unmodifiable list of the states of all friends, ordered by
+	 *         friend number
+	 */
+	public List<FriendState<F>> snapshot() {
+		this.writeLock.lock();
+		try {
+			AtomicReferenceArray<F> friends = this.friends;
+			List<FriendState<F>> result = new ArrayList<FriendState<F>>(
+					this.size);
+			for (int i = 0; i < friends.length(); i++) {
+				F friend = friends.get(i);
+				if (friend != null) {
+					result.add(new FriendState<F>(friend));
+				}
+			}
+			return Collections.unmodifiableList(result);
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	@Override
+	public F addFriend(int friendnumber) throws FriendExistsException {
+		this.writeLock.lock();
+		try {
+			if (getByFriendNumber(friendnumber) != null) {
+				throw new FriendExistsException(friendnumber);
+			}
+			return add(friendnumber);
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	@Override
+	public F addFriendIfNotExists(int friendnumber) {
+		F friend = getByFriendNumber(friendnumber);
+		if (friend != null) {
+			return friend;
+		}
+		this.writeLock.lock();
+		try {
+			friend = getByFriendNumber(friendnumber);
+			return friend != null ? friend : add(friendnumber);
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void removeFriend(int friendnumber) {
+		this.writeLock.lock();
+		try {
+			F friend = getByFriendNumber(friendnumber);
+			if (friend == null) {
+				return;
+			}
+			if (friend.getId() != null) {
+				this.byId.remove(normalizeId(friend.getId()), friend);
+			}
+			removeName(friend, friend.getName());
+			this.friends.set(friendnumber, null);
+			this.size--;
+			friend.list = null;
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	private F add(int friendnumber) {
+		if (friendnumber < 0) {
+			throw new IllegalArgumentException("Negative friend number: "
+					+ friendnumber);
+		}
+		F friend = this.factory.create(friendnumber);
+		if (friend.getFriendnumber() != friendnumber || friend.list != null) {
+			throw new IllegalStateException(
+					"Factory returned an unusable friend: " + friend);
+		}
+		AtomicReferenceArray<F> friends = this.friends;
+		if (friendnumber >= friends.length()) {
+			AtomicReferenceArray<F> grown = new AtomicReferenceArray<F>(
+					Math.max(friendnumber + 1, friends.length() * 2));
+			for (int i = 0; i < friends.length(); i++) {
+				grown.lazySet(i, friends.get(i));
+			}
+			this.friends = grown;
+			friends = grown;
+		}
+		friend.list = this;
+		if (friend.getId() != null) {
+			this.byId.put(normalizeId(friend.getId()), friend);
+		}
+		addName(friend, friend.getName());
+		friends.set(friendnumber, friend);
+		this.size++;
+		return friend;
+	}
+
+	@Override
+	void update(DefaultToxFriend changed, int field, Object value) {
+		this.writeLock.lock();
+		try {
+			if (changed.list != this) {
+				// Removed from the list meanwhile
+				changed.set(field, value);
+				return;
+			}
+			@SuppressWarnings("unchecked")
+			F friend = (F) changed;
+			switch (field) {
+			case FIELD_ID:
+				if (friend.getId() != null) {
+					this.byId.remove(normalizeId(friend.getId()), friend);
+				}
+				if (value != null) {
+					this.byId.put(normalizeId((String) value), friend);
+				}
+				break;
+			case FIELD_NAME:
+				removeName(friend, friend.getName());
+				addName(friend, (String) value);
+				break;
+			case FIELD_STATUS:
+				if (value == null) {
+					throw new NullPointerException("status");
+				}
+				break;
+			default:
+				break;
+			}
+			friend.set(field, value);
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+
+	private void addName(F friend, String name) {
+		if (name == null) {
+			return;
+		}
+		String key = DefaultFriendList.foldName(name);
+		Object[] bucket = this.byName.get(key);
+		if (bucket == null) {
+			bucket = EMPTY;
+		}
+		Object[] copy = new Object[bucket.length + 1];
+		System.arraycopy(bucket, 0, copy, 0, bucket.length);
+		copy[bucket.length] = friend;
+		this.byName.put(key, copy);
+	}
+
+	private void removeName(F friend, String name) {
+		if (name == null) {
+			return;
+		}
+		String key = DefaultFriendList.foldName(name);
+		Object[] bucket = this.byName.get(key);
+		if (bucket == null) {
+			return;
+		}
+		for (int i = 0; i < bucket.length; i++) {
+			if (bucket[i] == friend) {
+				if (bucket.length == 1) {
+					this.byName.remove(key);
+				} else {
+					Object[] copy = new Object[bucket.length - 1];
+					System.arraycopy(bucket, 0, copy, 0, i);
+					System.arraycopy(bucket, i + 1, copy, i, bucket.length - i
+							- 1);
+					this.byName.put(key, copy);
+				}
+				return;
+			}
+		}
+	}
+
+	private static String normalizeId(String id) {
+		return id.toUpperCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,450 @@
+/* DefaultFriendList.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Default implementation of {@link FriendList}, indexed for the lookups JTox
+ * and applications make most often:
+ * <ul>
+ * <li>Friends are stored in an array indexed by friend number, so
+ * {@link #getByFriendNumber(int)}, which runs for every event, is a single
+ * array access.</li>
+ * <li>{@link #getById(String)} uses a hash index on the public key.</li>
+ * <li>{@link #getByName(String, boolean)} uses a hash index on the case-folded
+ * name.</li>
+ * <li>{@link #searchFriend(String)} and {@link #searchFriend(String, int)} use
+ * a trigram index on the case-folded names, so they only look at friends
+ * whose names contain every three-character sequence of the query.</li>
+ * <li>Bit sets of the online friends, the offline friends and the online
+ * friends of each status make {@link #getOnlineFriends()},
+ * {@link #getOfflineFriends()} and {@link #getByStatus(ToxUserStatus)} scale
+ * with the number of results rather than the number of friends.</li>
+ * </ul>
+ * The indexes are updated by the setters of the friends, so friends must be
+ * {@link DefaultToxFriend}s, created by the list's {@link FriendFactory}.
+ * <p/>
+ * All methods are thread safe. They synchronize on the list.
+ * 
+ * @param <F>
+ *            Friend type to use with the list
+ */
+public class DefaultFriendList<F extends DefaultToxFriend> extends
+		FriendIndex implements FriendList<F> {
+
+	private static final ToxUserStatus[] STATUS_VALUES = ToxUserStatus.values();
+
+	private final FriendFactory<F> factory;
+	private DefaultToxFriend[] friends = new DefaultToxFriend[16];
+	private int size;
+	private final Map<String, F> byId = new HashMap<String, F>();
+	private final Map<String, List<F>> byName = new HashMap<String, List<F>>();
+	private String[] foldedNames = new String[16];
+	private final NameIndex nameIndex = new NameIndex();
+	private final BitSet online = new BitSet();
+	private final BitSet offline = new BitSet();
+	private final BitSet[] onlineByStatus = new BitSet[STATUS_VALUES.length];
+
+	/**
+	 * Creates a list of {@link DefaultToxFriend}s
+	 * 
+	 * @return the new list
+	 */
+	public static DefaultFriendList<DefaultToxFriend> create() {
+		return new DefaultFriendList<DefaultToxFriend>(
+				new FriendFactory<DefaultToxFriend>() {
+					@Override
+					public DefaultToxFriend create(int friendnumber) {
+						return new DefaultToxFriend(friendnumber);
+					}
+				});
+	}
+
+	/**
+	 * Creates a list whose friends are created by the given factory
+	 * 
+	 * @param factory
+	 *            the factory
+	 */
+	public DefaultFriendList(FriendFactory<F> factory) {
+		if (factory == null) {
+			throw new NullPointerException("factory");
+		}
+		this.factory = factory;
+		for (int i = 0; i < this.onlineByStatus.length; i++) {
+			this.onlineByStatus[i] = new BitSet();
+		}
+	}
+
+	@Override
+	public synchronized F getByFriendNumber(int friendnumber) {
+		if (friendnumber < 0 || friendnumber >= this.friends.length) {
+			return null;
+		}
+		return get(friendnumber);
+	}
+
+	@Override
+	public synchronized F getById(String id) {
+		return id == null ? null : this.byId.get(normalizeId(id));
+	}
+
+	@Override
+	public synchronized List<F> getByName(String name, boolean ignorecase) {
+		List<F> bucket = this.byName.get(foldName(name));
+		if (bucket == null) {
+			return new ArrayList<F>(0);
+		}
+		List<F> result = new ArrayList<F>(bucket.size());
+		for (F friend : bucket) {
+			if (ignorecase ? name.equalsIgnoreCase(friend.getName()) : name
+					.equals(friend.getName())) {
+				result.add(friend);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p/>
+	 * The results are ordered like those of {@link #searchFriend(String, int)}.
+	 */
+	@Override
+	public List<F> searchFriend(String partial) {
+		return searchFriend(partial, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get the best matches among the friends that have the content of partial
+	 * inside of their names, ignoring case. Friends whose names start with
+	 * partial come first, then those containing it closer to the start of
+	 * their names. Among those, shorter names come first.
+	 * 
+	 * @param partial
+	 *            the partial String to look for
+	 * @param limit
+	 *            the maximum number of results
+	 * @return a List containing the best matches, best first. If no results
+	 *         are found, an empty List is returned.
+	 */
+	public synchronized List<F> searchFriend(String partial, int limit) {
+		if (limit <= 0) {
+			return new ArrayList<F>(0);
+		}
+		String query = foldName(partial);
+		TopMatches top = new TopMatches(limit);
+		if (query.length() < NameIndex.GRAM) {
+			for (int i = 0; i < this.foldedNames.length; i++) {
+				match(top, i, query);
+			}
+		} else {
+			NameIndex.IntSet[] sets = this.nameIndex.lookup(query);
+			if (sets != null) {
+				candidates: for (int candidate : sets[0].slots()) {
+					if (candidate < 0) {
+						continue;
+					}
+					for (int i = 1; i < sets.length; i++) {
+						if (!sets[i].contains(candidate)) {
+							continue candidates;
+						}
+					}
+					match(top, candidate, query);
+				}
+			}
+		}
+
+		long[] ranks = top.sorted();
+		List<F> result = new ArrayList<F>(ranks.length);
+		for (long rank : ranks) {
+			result.add(get((int) rank));
+		}
+		return result;
+	}
+
+	private void match(TopMatches top, int friendnumber, String query) {
+		String name = this.foldedNames[friendnumber];
+		if (name != null) {
+			int position = name.indexOf(query);
+			if (position >= 0) {
+				top.add(((long) Math.min(position, 0xffff) << 48)
+						| ((long) Math.min(name.length(), 0xffff) << 32)
+						| friendnumber);
+			}
+		}
+	}
+
+	/**
+	 * Keeps the lowest ranks added to it in a bounded max-heap
+	 */
+	private static final class TopMatches {
+		private final int limit;
+		private long[] heap = new long[16];
+		private int size;
+
+		TopMatches(int limit) {
+			this.limit = limit;
+		}
+
+		void add(long rank) {
+			if (this.size < this.limit) {
+				if (this.size == this.heap.length) {
+					this.heap = Arrays.copyOf(this.heap, this.size * 2);
+				}
+				int i = this.size++;
+				while (i > 0 && this.heap[(i - 1) >>> 1] < rank) {
+					this.heap[i] = this.heap[(i - 1) >>> 1];
+					i = (i - 1) >>> 1;
+				}
+				this.heap[i] = rank;
+			} else if (rank < this.heap[0]) {
+				int i = 0;
+				int half = this.size >>> 1;
+				while (i < half) {
+					int child = 2 * i + 1;
+					if (child + 1 < this.size
+							&& this.heap[child + 1] > this.heap[child]) {
+						child++;
+					}
+					if (this.heap[child] <= rank) {
+						break;
+					}
+					this.heap[i] = this.heap[child];
+					i = child;
+				}
+				this.heap[i] = rank;
+			}
+		}
+
+		long[] sorted() {
+			long[] result = Arrays.copyOf(this.heap, this.size);
+			Arrays.sort(result);
+			return result;
+		}
+	}
+
+	@Override
+	public synchronized List<F> getByStatus(ToxUserStatus status) {
+		return collect(this.onlineByStatus[status.ordinal()]);
+	}
+
+	@Override
+	public synchronized List<F> getOnlineFriends() {
+		return collect(this.online);
+	}
+
+	@Override
+	public synchronized List<F> getOfflineFriends() {
+		return collect(this.offline);
+	}
+
+	@Override
+	public synchronized List<F> all() {
+		List<F> result = new ArrayList<F>(this.size);
+		for (int i = 0; i < this.friends.length; i++) {
+			F friend = get(i);
+			if (friend != null) {
+				result.add(friend);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of friends in the list
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	@Override
+	public synchronized F addFriend(int friendnumber)
+			throws FriendExistsException {
+		if (getByFriendNumber(friendnumber) != null) {
+			throw new FriendExistsException(friendnumber);
+		}
+		return add(friendnumber);
+	}
+
+	@Override
+	public synchronized F addFriendIfNotExists(int friendnumber) {
+		F friend = getByFriendNumber(friendnumber);
+		return friend != null ? friend : add(friendnumber);
+	}
+
+	@Override
+	public synchronized void removeFriend(int friendnumber) {
+		F friend = getByFriendNumber(friendnumber);
+		if (friend == null) {
+			return;
+		}
+		if (friend.getId() != null) {
+			this.byId.remove(normalizeId(friend.getId()));
+		}
+		removeName(friend, friend.getName());
+		this.online.clear(friendnumber);
+		this.offline.clear(friendnumber);
+		this.onlineByStatus[friend.getStatus().ordinal()].clear(friendnumber);
+		this.friends[friendnumber] = null;
+		this.size--;
+		friend.list = null;
+	}
+
+	private F add(int friendnumber) {
+		if (friendnumber < 0) {
+			throw new IllegalArgumentException("Negative friend number: "
+					+ friendnumber);
+		}
+		F friend = this.factory.create(friendnumber);
+		if (friend.getFriendnumber() != friendnumber || friend.list != null) {
+			throw new IllegalStateException(
+					"Factory returned an unusable friend: " + friend);
+		}
+		if (friendnumber >= this.friends.length) {
+			int capacity = Math.max(friendnumber + 1, this.friends.length * 2);
+			this.friends = Arrays.copyOf(this.friends, capacity);
+			this.foldedNames = Arrays.copyOf(this.foldedNames, capacity);
+		}
+		this.friends[friendnumber] = friend;
+		this.size++;
+		friend.list = this;
+		if (friend.getId() != null) {
+			this.byId.put(normalizeId(friend.getId()), friend);
+		}
+		addName(friend, friend.getName());
+		if (friend.isOnline()) {
+			this.online.set(friendnumber);
+			this.onlineByStatus[friend.getStatus().ordinal()].set(friendnumber);
+		} else {
+			this.offline.set(friendnumber);
+		}
+		return friend;
+	}
+
+	@Override
+	synchronized void update(DefaultToxFriend changed, int field, Object value) {
+		if (changed.list != this) {
+			// Removed from the list meanwhile
+			changed.set(field, value);
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		F friend = (F) changed;
+		int number = friend.getFriendnumber();
+		switch (field) {
+		case FIELD_ID:
+			if (friend.getId() != null) {
+				this.byId.remove(normalizeId(friend.getId()));
+			}
+			if (value != null) {
+				this.byId.put(normalizeId((String) value), friend);
+			}
+			break;
+		case FIELD_NAME:
+			removeName(friend, friend.getName());
+			addName(friend, (String) value);
+			break;
+		case FIELD_STATUS:
+			if (value == null) {
+				throw new NullPointerException("status");
+			}
+			if (friend.isOnline()) {
+				this.onlineByStatus[friend.getStatus().ordinal()].clear(number);
+				this.onlineByStatus[((ToxUserStatus) value).ordinal()]
+						.set(number);
+			}
+			break;
+		case FIELD_ONLINE:
+			boolean isOnline = ((Boolean) value).booleanValue();
+			this.online.set(number, isOnline);
+			this.offline.set(number, !isOnline);
+			this.onlineByStatus[friend.getStatus().ordinal()].set(number,
+					isOnline);
+			break;
+		default:
+			break;
+		}
+		friend.set(field, value);
+	}
+
+	private void addName(F friend, String name) {
+		if (name == null) {
+			return;
+		}
+		String key = foldName(name);
+		List<F> bucket = this.byName.get(key);
+		if (bucket == null) {
+			bucket = new ArrayList<F>(1);
+			this.byName.put(key, bucket);
+		}
+		bucket.add(friend);
+		this.foldedNames[friend.getFriendnumber()] = key;
+		this.nameIndex.add(friend.getFriendnumber(), key);
+	}
+
+	private void removeName(F friend, String name) {
+		if (name == null) {
+			return;
+		}
+		String key = foldName(name);
+		this.foldedNames[friend.getFriendnumber()] = null;
+		this.nameIndex.remove(friend.getFriendnumber(), key);
+		List<F> bucket = this.byName.get(key);
+		if (bucket != null) {
+			bucket.remove(friend);
+			if (bucket.isEmpty()) {
+				this.byName.remove(key);
+			}
+		}
+	}
+
+	private List<F> collect(BitSet bits) {
+		List<F> result = new ArrayList<F>(bits.cardinality());
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			result.add(get(i));
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private F get(int friendnumber) {
+		return (F) this.friends[friendnumber];
+	}
+
+	private static String normalizeId(String id) {
+		return id.toUpperCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Fold a name for case insensitive comparison
+	 */
+	static String foldName(String name) {
+		return name.toUpperCase(Locale.ENGLISH).toLowerCase(Locale.ENGLISH);
+	}
+}
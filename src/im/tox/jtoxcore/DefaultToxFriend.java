@@ -0,0 +1,168 @@
+/* DefaultToxFriend.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+/**
+ * Default implementation of {@link ToxFriend}, for use with
+ * {@link DefaultFriendList} and {@link ConcurrentFriendList}. While the friend
+ * is in a list, its setters keep the indexes of the list up to date. Extend
+ * this class to attach application data to friends, and create the friends
+ * with a {@link FriendFactory}.
+ * <p/>
+ * The getters may be called from any thread.
+ */
+public class DefaultToxFriend implements ToxFriend {
+
+	private final int friendnumber;
+	private volatile String id;
+	private volatile String name;
+	private volatile String statusMessage;
+	private volatile ToxUserStatus status = ToxUserStatus.TOX_USERSTATUS_NONE;
+	private volatile boolean online;
+
+	/**
+	 * The list this friend is in, guarded by that list's lock
+	 */
+	FriendIndex list;
+
+	/**
+	 * Creates a new friend
+	 * 
+	 * @param friendnumber
+	 *            the friend's number
+	 */
+	public DefaultToxFriend(int friendnumber) {
+		this.friendnumber = friendnumber;
+	}
+
+	@Override
+	public String getId() {
+		return this.id;
+	}
+
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	@Override
+	public String getStatusMessage() {
+		return this.statusMessage;
+	}
+
+	@Override
+	public ToxUserStatus getStatus() {
+		return this.status;
+	}
+
+	@Override
+	public boolean isOnline() {
+		return this.online;
+	}
+
+	@Override
+	public int getFriendnumber() {
+		return this.friendnumber;
+	}
+
+	@Override
+	public void setId(String id) {
+		FriendIndex list = this.list;
+		if (list == null) {
+			this.id = id;
+		} else {
+			list.update(this, FriendIndex.FIELD_ID, id);
+		}
+	}
+
+	@Override
+	public void setName(String name) {
+		FriendIndex list = this.list;
+		if (list == null) {
+			this.name = name;
+		} else {
+			list.update(this, FriendIndex.FIELD_NAME, name);
+		}
+	}
+
+	@Override
+	public void setStatusMessage(String statusMessage) {
+		FriendIndex list = this.list;
+		if (list == null) {
+			this.statusMessage = statusMessage;
+		} else {
+			list.update(this, FriendIndex.FIELD_STATUS_MESSAGE,
+					statusMessage);
+		}
+	}
+
+	@Override
+	public void setStatus(ToxUserStatus status) {
+		FriendIndex list = this.list;
+		if (list == null) {
+			this.status = status;
+		} else {
+			list.update(this, FriendIndex.FIELD_STATUS, status);
+		}
+	}
+
+	@Override
+	public void setOnline(boolean online) {
+		FriendIndex list = this.list;
+		if (list == null) {
+			this.online = online;
+		} else {
+			list.update(this, FriendIndex.FIELD_ONLINE,
+					Boolean.valueOf(online));
+		}
+	}
+
+	/**
+	 * Set a field without notifying the list. Called by the list while
+	 * holding its lock.
+	 */
+	void set(int field, Object value) {
+		switch (field) {
+		case FriendIndex.FIELD_ID:
+			this.id = (String) value;
+			break;
+		case FriendIndex.FIELD_NAME:
+			this.name = (String) value;
+			break;
+		case FriendIndex.FIELD_STATUS_MESSAGE:
+			this.statusMessage = (String) value;
+			break;
+		case FriendIndex.FIELD_STATUS:
+			this.status = (ToxUserStatus) value;
+			break;
+		case FriendIndex.FIELD_ONLINE:
+			this.online = ((Boolean) value).booleanValue();
+			break;
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultToxFriend[" + this.friendnumber + ", " + this.name + "]";
+	}
+}
@@ -0,0 +1,411 @@
+/* FriendCache.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of the friend list of an instance, so a client can show its
+ * friends right after startup instead of waiting for all friend data to be
+ * fetched from the native library.
+ * <p/>
+ * Pass the cache to {@link JTox#JTox(File, FriendCache, FriendList,
+ * CallbackHandler)}: the friend list is filled from the cache file, and then
+ * checked against the native state on a background daemon thread, which
+ * updates changed friends, removes friends the instance no longer knows and
+ * rewrites the cache. Friends loaded from the cache are offline until that
+ * check is done. The instance rewrites the cache when it is killed. Writes
+ * are skipped if the friends have not changed since the cache file was last
+ * read or written, so saving an instance often does not wear out the disk.
+ * <p/>
+ * The file starts with a magic number and a format version, and ends with a
+ * CRC32 checksum of its contents. Files with an unknown version or a wrong
+ * checksum are ignored. Writes are atomic, see {@link JTox#save(File)}.
+ */
+public class FriendCache {
+
+	/**
+	 * Version of the file format written by this class
+	 */
+	public static final int VERSION = 1;
+
+	private static final int MAGIC = 0x4A544643; // "JTFC"
+
+	/**
+	 * Length stored for texts that are null
+	 */
+	private static final char NULL_LENGTH = 0xffff;
+
+	private static final ToxUserStatus[] STATUS_VALUES = ToxUserStatus.values();
+
+	private final File file;
+	private volatile Future<Void> verification;
+	private volatile IOException lastError;
+
+	/**
+	 * Checksum of the contents last read from or written to the file, valid
+	 * if hasChecksum is set. Guarded by this.
+	 */
+	private int checksum;
+	private boolean hasChecksum;
+
+	/**
+	 * Creates a cache stored in the given file. The file does not have to
+	 * exist yet.
+	 * 
+	 * @param file
+	 *            the cache file
+	 */
+	public FriendCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the cache file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Add the friends stored in the cache file to the given list. All friends
+	 * are added as offline. Nothing is added if the file is missing, can not be
+	 * read, has a different version or a wrong checksum.
+	 * 
+	 * @param friendList
+	 *            the list to fill
+	 * @return <code>true</code> if the cache file was loaded
+	 */
+	public <F extends ToxFriend> boolean load(FriendList<F> friendList) {
+		if (!this.file.exists()) {
+			return false;
+		}
+		try {
+			ByteBuffer buffer = verify(SaveFiles.read(this.file));
+			int count = buffer.getInt();
+			for (int i = 0; i < count; i++) {
+				int friendnumber = buffer.getInt();
+				ToxUserStatus status = STATUS_VALUES[buffer.get()];
+				String id = null;
+				if (buffer.get() != 0) {
+					byte[] key = new byte[ToxId.PUBLIC_KEY_SIZE];
+					buffer.get(key);
+					id = ToxId.wrap(key).toHexString();
+				}
+				String name = readText(buffer);
+				String statusMessage = readText(buffer);
+
+				F friend = friendList.addFriendIfNotExists(friendnumber);
+				friend.setId(id);
+				friend.setName(name);
+				friend.setStatusMessage(statusMessage);
+				friend.setStatus(status);
+				friend.setOnline(false);
+			}
+			synchronized (this) {
+				// The checksum follows the limit set by verify
+				this.checksum = ByteBuffer.wrap(buffer.array()).getInt(
+						buffer.limit());
+				this.hasChecksum = true;
+			}
+			return true;
+		} catch (IOException e) {
+			this.lastError = e;
+		} catch (BufferUnderflowException e) {
+			this.lastError = new IOException("Truncated friend cache: "
+					+ this.file);
+		} catch (IndexOutOfBoundsException e) {
+			this.lastError = new IOException("Corrupt friend cache: "
+					+ this.file);
+		}
+		return false;
+	}
+
+	/**
+	 * Check the header and checksum of the cache file
+	 * 
+	 * @return the buffer, positioned after the header
+	 */
+	private ByteBuffer verify(ByteBuffer data) throws IOException {
+		if (data.remaining() < 12) {
+			throw new IOException("Truncated friend cache: " + this.file);
+		}
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a friend cache: " + this.file);
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported friend cache version "
+					+ version + ": " + this.file);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		if ((int) crc.getValue() != buffer.getInt(bytes.length - 4)) {
+			throw new IOException("Wrong checksum in friend cache: "
+					+ this.file);
+		}
+		buffer.limit(bytes.length - 4);
+		return buffer;
+	}
+
+	private static String readText(ByteBuffer buffer) {
+		char length = buffer.getChar();
+		return length == NULL_LENGTH ? null : ToxCodec.decode(buffer, length);
+	}
+
+	/**
+	 * Write all friends of the given list to the cache file. Nothing is
+	 * written if the file still holds exactly these friends. The list must not
+	 * be changed by other threads while it is copied, unless it is thread safe.
+	 * 
+	 * @param friendList
+	 *            the list to write
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void write(FriendList<?> friendList) throws IOException {
+		write(new Snapshot(friendList));
+	}
+
+	/**
+	 * Write the given friends to the cache file, unless the file still holds
+	 * exactly these friends
+	 * 
+	 * @param snapshot
+	 *            the friends to write
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	synchronized void write(Snapshot snapshot) throws IOException {
+		int count = snapshot.numbers.length;
+		byte[][] keys = new byte[count][];
+		byte[][] names = new byte[count][];
+		byte[][] statusMessages = new byte[count][];
+		int size = 16;
+		for (int i = 0; i < count; i++) {
+			keys[i] = publicKey(snapshot.ids[i]);
+			names[i] = encode(snapshot.names[i]);
+			statusMessages[i] = encode(snapshot.statusMessages[i]);
+			size += 10 + ToxId.PUBLIC_KEY_SIZE + length(names[i])
+					+ length(statusMessages[i]);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(count);
+		for (int i = 0; i < count; i++) {
+			buffer.putInt(snapshot.numbers[i]);
+			ToxUserStatus status = snapshot.statuses[i];
+			if (status == null) {
+				status = ToxUserStatus.TOX_USERSTATUS_NONE;
+			}
+			buffer.put((byte) status.ordinal());
+			if (keys[i] == null) {
+				buffer.put((byte) 0);
+			} else {
+				buffer.put((byte) 1);
+				buffer.put(keys[i]);
+			}
+			writeText(buffer, names[i]);
+			writeText(buffer, statusMessages[i]);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		int checksum = (int) crc.getValue();
+		if (this.hasChecksum && this.checksum == checksum
+				&& this.file.exists()) {
+			return;
+		}
+		buffer.putInt(checksum);
+		buffer.flip();
+		SaveFiles.write(this.file, buffer);
+		this.checksum = checksum;
+		this.hasChecksum = true;
+	}
+
+	/**
+	 * Write the given friends to the cache file, reporting errors through
+	 * {@link #getLastError()}
+	 * 
+	 * @param snapshot
+	 *            the friends to write
+	 */
+	void writeQuietly(Snapshot snapshot) {
+		try {
+			write(snapshot);
+		} catch (IOException e) {
+			this.lastError = e;
+		}
+	}
+
+	/**
+	 * Get the public key of a friend's id. Ids that are not valid are not
+	 * cached, so a malformed id set on a friend can not fail the whole write;
+	 * the check after the next load fetches the key again.
+	 * 
+	 * @return the public key, or null if the id is null or not valid
+	 */
+	private static byte[] publicKey(String id) {
+		if (id == null) {
+			return null;
+		}
+		try {
+			return ToxId.fromHex(id).getPublicKey().bytes();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Encode a text for the cache, cutting it short if it does not fit
+	 * 
+	 * @return the encoded text, or null if the text is null
+	 */
+	private static byte[] encode(String text) {
+		if (text == null) {
+			return null;
+		}
+		byte[] bytes = ToxCodec.encode(text);
+		if (bytes.length < NULL_LENGTH) {
+			return bytes;
+		}
+		// Never happens with the lengths allowed by the native library. Cut
+		// before the character holding the first byte that does not fit.
+		int length = NULL_LENGTH - 1;
+		while ((bytes[length] & 0xc0) == 0x80) {
+			length--;
+		}
+		return Arrays.copyOf(bytes, length);
+	}
+
+	private static int length(byte[] text) {
+		return text == null ? 0 : text.length;
+	}
+
+	private static void writeText(ByteBuffer buffer, byte[] text) {
+		if (text == null) {
+			buffer.putChar(NULL_LENGTH);
+		} else {
+			buffer.putChar((char) text.length);
+			buffer.put(text);
+		}
+	}
+
+	/**
+	 * Check the friend list of the given instance against its native state on
+	 * a new background daemon thread, then rewrite the cache
+	 * 
+	 * @param tox
+	 *            the instance
+	 * @param check
+	 *            <code>false</code> if the friend list has just been fetched
+	 *            from the native library, so only the cache is rewritten
+	 */
+	void verify(final JTox<?> tox, final boolean check) {
+		FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					if (check) {
+						tox.verifyFriendList();
+					}
+					write(tox.snapshotFriendList());
+				} catch (IOException e) {
+					FriendCache.this.lastError = e;
+					throw e;
+				}
+				return null;
+			}
+		});
+		this.verification = task;
+		Thread thread = new Thread(task, "ToxFriendCache");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return Future of the last check of a friend list against the native
+	 *         state, or null if none was started. It fails with a
+	 *         {@link ToxException} if the instance was killed first, or an
+	 *         IOException if the cache could not be written.
+	 */
+	public Future<Void> getVerification() {
+		return this.verification;
+	}
+
+	/**
+	 * @return the error of the last load or write that failed, or null if none
+	 *         has failed yet
+	 */
+	public IOException getLastError() {
+		return this.lastError;
+	}
+
+	/**
+	 * Copy of the cached data of all friends of a list, so the friends can be
+	 * encoded and written without holding the lock of the list's owner
+	 */
+	static final class Snapshot {
+		final int[] numbers;
+		final ToxUserStatus[] statuses;
+		final String[] ids;
+		final String[] names;
+		final String[] statusMessages;
+
+		/**
+		 * Copy the friends of the given list
+		 * 
+		 * @param friendList
+		 *            the list to copy
+		 */
+		Snapshot(FriendList<?> friendList) {
+			List<? extends ToxFriend> friends = friendList.all();
+			int count = friends.size();
+			this.numbers = new int[count];
+			this.statuses = new ToxUserStatus[count];
+			this.ids = new String[count];
+			this.names = new String[count];
+			this.statusMessages = new String[count];
+			int i = 0;
+			for (ToxFriend friend : friends) {
+				this.numbers[i] = friend.getFriendnumber();
+				this.statuses[i] = friend.getStatus();
+				this.ids[i] = friend.getId();
+				this.names[i] = friend.getName();
+				this.statusMessages[i] = friend.getStatusMessage();
+				i++;
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/* FriendFactory.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+/**
+ * Creates the friends of a {@link DefaultFriendList} or
+ * {@link ConcurrentFriendList}
+ * 
+ * @param <F>
+ *            the friend type
+ */
+public interface FriendFactory<F extends DefaultToxFriend> {
+
+	/**
+	 * Create a new friend
+	 * 
+	 * @param friendnumber
+	 *            the friend's number
+	 * @return the new friend, which must not be in any list yet
+	 */
+	F create(int friendnumber);
+}
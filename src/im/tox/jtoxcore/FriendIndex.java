@@ -0,0 +1,49 @@
+/* FriendIndex.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+/**
+ * A friend list that keeps indexes over the fields of its
+ * {@link DefaultToxFriend}s. The setters of a friend in such a list go through
+ * {@link #update(DefaultToxFriend, int, Object)}, so the list can update its
+ * indexes along with the field.
+ */
+abstract class FriendIndex {
+
+	static final int FIELD_ID = 0;
+	static final int FIELD_NAME = 1;
+	static final int FIELD_STATUS_MESSAGE = 2;
+	static final int FIELD_STATUS = 3;
+	static final int FIELD_ONLINE = 4;
+
+	/**
+	 * Change a field of a friend and update the indexes. If the friend is no
+	 * longer in this list, only the field is changed.
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param field
+	 *            one of the FIELD constants
+	 * @param value
+	 *            the new value, a Boolean for {@link #FIELD_ONLINE}
+	 */
+	abstract void update(DefaultToxFriend friend, int field, Object value);
+}
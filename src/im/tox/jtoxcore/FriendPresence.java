@@ -0,0 +1,294 @@
+/* FriendPresence.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Live views of the online and offline friends of a {@link FriendList}, and
+ * of the online friends by user status. Unlike
+ * {@link FriendList#getOnlineFriends()} and its siblings, which build a new
+ * List on every call, the views are updated incrementally as connection and
+ * user status events arrive, so reading them does not scan the friend list.
+ * Listeners added to a view are told about friends joining and leaving it.
+ * <p/>
+ * The presence of an instance is obtained with {@link JTox#getPresence()}, and
+ * follows all changes the instance makes to its friend list. Changes made to
+ * friends directly are only picked up by {@link #refresh()}.
+ * 
+ * @param <F>
+ *            Friend type of the list
+ */
+public class FriendPresence<F extends ToxFriend> {
+
+	private static final ToxUserStatus[] STATUS_VALUES = ToxUserStatus.values();
+
+	/**
+	 * State of friends that are not in the list
+	 */
+	private static final byte ABSENT = -1;
+
+	/**
+	 * State of offline friends. Online friends have the ordinal of their user
+	 * status plus one as state.
+	 */
+	private static final byte OFFLINE = 0;
+
+	private final FriendList<F> friendList;
+	private final FriendView<F> online;
+	private final FriendView<F> offline;
+	private final FriendView<F>[] byStatus;
+
+	/**
+	 * State of each friend by friend number
+	 */
+	private byte[] states = new byte[0];
+
+	/**
+	 * Changes not yet reported to the listeners, and whether a thread is
+	 * reporting them. Guarded by this.
+	 */
+	private final ArrayDeque<Change<F>> pending = new ArrayDeque<Change<F>>();
+	private boolean firing;
+
+	/**
+	 * Change of a friend's state, to be reported to the listeners
+	 */
+	private static final class Change<F> {
+		final F friend;
+		final byte old;
+		final byte state;
+
+		Change(F friend, byte old, byte state) {
+			this.friend = friend;
+			this.old = old;
+			this.state = state;
+		}
+	}
+
+	/**
+	 * Creates the views of the given friend list and fills them with its
+	 * current friends
+	 * 
+	 * @param friendList
+	 *            the friend list
+	 */
+	@SuppressWarnings("unchecked")
+	public FriendPresence(FriendList<F> friendList) {
+		this.friendList = friendList;
+		this.online = new FriendView<F>(this);
+		this.offline = new FriendView<F>(this);
+		this.byStatus = (FriendView<F>[]) new FriendView<?>[STATUS_VALUES
+				.length];
+		for (int i = 0; i < this.byStatus.length; i++) {
+			this.byStatus[i] = new FriendView<F>(this);
+		}
+		refresh();
+	}
+
+	/**
+	 * @return live view of all friends that are online
+	 */
+	public FriendView<F> getOnlineFriends() {
+		return this.online;
+	}
+
+	/**
+	 * @return live view of all friends that are offline
+	 */
+	public FriendView<F> getOfflineFriends() {
+		return this.offline;
+	}
+
+	/**
+	 * Get the live view of all friends that are online and have the specified
+	 * status
+	 * 
+	 * @param status
+	 *            the status
+	 * @return the view
+	 */
+	public FriendView<F> getByStatus(ToxUserStatus status) {
+		return this.byStatus[status.ordinal()];
+	}
+
+	/**
+	 * Bring all views up to date with the friend list. Only needed if friends
+	 * were changed without going through {@link JTox}.
+	 */
+	public void refresh() {
+		BitSet present = new BitSet();
+		for (F friend : this.friendList.all()) {
+			present.set(friend.getFriendnumber());
+			update(friend);
+		}
+		int length;
+		synchronized (this) {
+			length = this.states.length;
+		}
+		for (int i = present.nextClearBit(0); i < length; i = present
+				.nextClearBit(i + 1)) {
+			// Friends added since the list was read are kept
+			if (this.friendList.getByFriendNumber(i) == null) {
+				remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Move the given friend to the views matching its current connection and
+	 * user status
+	 * 
+	 * @param friend
+	 *            the friend
+	 */
+	void update(F friend) {
+		int friendnumber = friend.getFriendnumber();
+		synchronized (this) {
+			// Read under the lock, so that concurrent updates of the same
+			// friend cannot store a stale state after a newer one
+			byte state = OFFLINE;
+			if (friend.isOnline()) {
+				state = (byte) (friend.getStatus().ordinal() + 1);
+			}
+			if (friendnumber >= this.states.length) {
+				int length = Math.max(friendnumber + 1, this.states.length * 2);
+				int start = this.states.length;
+				this.states = Arrays.copyOf(this.states, length);
+				Arrays.fill(this.states, start, length, ABSENT);
+			}
+			byte old = this.states[friendnumber];
+			if (old == state) {
+				return;
+			}
+			this.states[friendnumber] = state;
+			removeFromViews(friendnumber, old);
+			addToViews(friendnumber, friend, state);
+			this.pending.add(new Change<F>(friend, old, state));
+		}
+		firePending();
+	}
+
+	/**
+	 * Remove the friend with the given number from all views
+	 * 
+	 * @param friendnumber
+	 *            the friend's number
+	 */
+	void remove(int friendnumber) {
+		synchronized (this) {
+			if (friendnumber < 0 || friendnumber >= this.states.length
+					|| this.states[friendnumber] == ABSENT) {
+				return;
+			}
+			byte old = this.states[friendnumber];
+			F friend = (old == OFFLINE ? this.offline : this.online)
+					.find(friendnumber);
+			this.states[friendnumber] = ABSENT;
+			removeFromViews(friendnumber, old);
+			this.pending.add(new Change<F>(friend, old, ABSENT));
+		}
+		firePending();
+	}
+
+	private void removeFromViews(int friendnumber, byte state) {
+		if (state == OFFLINE) {
+			this.offline.leave(friendnumber);
+		} else if (state != ABSENT) {
+			this.online.leave(friendnumber);
+			this.byStatus[state - 1].leave(friendnumber);
+		}
+	}
+
+	private void addToViews(int friendnumber, F friend, byte state) {
+		if (state == OFFLINE) {
+			this.offline.join(friendnumber, friend);
+		} else {
+			this.online.join(friendnumber, friend);
+			this.byStatus[state - 1].join(friendnumber, friend);
+		}
+	}
+
+	/**
+	 * Tell the listeners about all pending changes, in the order they were
+	 * made. Only one thread notifies at a time; changes made meanwhile, by any
+	 * thread, are reported by the thread already notifying.
+	 */
+	private void firePending() {
+		synchronized (this) {
+			if (this.firing) {
+				return;
+			}
+			this.firing = true;
+		}
+		boolean done = false;
+		try {
+			while (true) {
+				Change<F> change;
+				synchronized (this) {
+					change = this.pending.poll();
+					if (change == null) {
+						this.firing = false;
+						done = true;
+						return;
+					}
+				}
+				fireChanges(change.friend, change.old, change.state);
+			}
+		} finally {
+			if (!done) {
+				// A listener threw, leave the rest to the next change
+				synchronized (this) {
+					this.firing = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tell the listeners of all views the friend left or joined by changing
+	 * from the old to the new state
+	 */
+	private void fireChanges(F friend, byte old, byte state) {
+		boolean wasOnline = old > OFFLINE;
+		boolean isOnline = state > OFFLINE;
+		if (wasOnline) {
+			this.byStatus[old - 1].fireLeft(friend);
+		}
+		if (wasOnline && !isOnline) {
+			this.online.fireLeft(friend);
+		}
+		if (old == OFFLINE) {
+			this.offline.fireLeft(friend);
+		}
+		if (state == OFFLINE) {
+			this.offline.fireJoined(friend);
+		}
+		if (isOnline && !wasOnline) {
+			this.online.fireJoined(friend);
+		}
+		if (isOnline) {
+			this.byStatus[state - 1].fireJoined(friend);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/* FriendView.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Live, read-only view of a set of friends, kept up to date by a
+ * {@link FriendPresence}. {@link #size()}, {@link #get(int)} and
+ * {@link #contains(Object)} take constant time. Iterating a view works on a
+ * copy of it, so it never throws a ConcurrentModificationException.
+ * <p/>
+ * Views are not ordered: removing a friend moves the last friend of the view
+ * to its position.
+ * 
+ * @param <F>
+ *            Friend type of the view
+ */
+public final class FriendView<F extends ToxFriend> extends AbstractList<F> {
+
+	/**
+	 * Lock shared by all views of the same FriendPresence
+	 */
+	private final Object lock;
+
+	private Object[] elements = new Object[16];
+	private int size;
+
+	/**
+	 * Position of each friend in elements plus one, by friend number. 0 if the
+	 * friend is not part of the view.
+	 */
+	private int[] positions = new int[16];
+
+	private final CopyOnWriteArrayList<FriendViewListener<F>> listeners = new CopyOnWriteArrayList<FriendViewListener<F>>();
+
+	FriendView(Object lock) {
+		this.lock = lock;
+	}
+
+	/**
+	 * Add a listener that is told about friends joining and leaving this view.
+	 * Listeners are called without holding the view's lock, usually on the
+	 * thread calling {@link JTox#doTox()}, so they should return quickly.
+	 * Notifications are made one at a time, in the order of the changes. If
+	 * several threads change the presence, the thread already notifying also
+	 * reports the changes the others made.
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(FriendViewListener<F> listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Remove a listener added with {@link #addListener(FriendViewListener)}
+	 * 
+	 * @param listener
+	 *            the listener
+	 */
+	public void removeListener(FriendViewListener<F> listener) {
+		this.listeners.remove(listener);
+	}
+
+	@Override
+	public int size() {
+		synchronized (this.lock) {
+			return this.size;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public F get(int index) {
+		synchronized (this.lock) {
+			if (index < 0 || index >= this.size) {
+				throw new IndexOutOfBoundsException("Index: " + index
+						+ ", Size: " + this.size);
+			}
+			return (F) this.elements[index];
+		}
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof ToxFriend)) {
+			return false;
+		}
+		int friendnumber = ((ToxFriend) o).getFriendnumber();
+		synchronized (this.lock) {
+			if (friendnumber < 0 || friendnumber >= this.positions.length) {
+				return false;
+			}
+			int position = this.positions[friendnumber];
+			return position != 0 && o.equals(this.elements[position - 1]);
+		}
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		if (!contains(o)) {
+			return -1;
+		}
+		synchronized (this.lock) {
+			return this.positions[((ToxFriend) o).getFriendnumber()] - 1;
+		}
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return indexOf(o);
+	}
+
+	@Override
+	public Object[] toArray() {
+		synchronized (this.lock) {
+			return Arrays.copyOf(this.elements, this.size);
+		}
+	}
+
+	@Override
+	public Iterator<F> iterator() {
+		return listIterator(0);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public ListIterator<F> listIterator(int index) {
+		List<?> copy = Arrays.asList(toArray());
+		return ((List<F>) copy).listIterator(index);
+	}
+
+	/**
+	 * Get the friend with the given number, the caller must hold the lock
+	 * 
+	 * @return the friend, or null if it is not part of this view
+	 */
+	@SuppressWarnings("unchecked")
+	F find(int friendnumber) {
+		if (friendnumber >= this.positions.length
+				|| this.positions[friendnumber] == 0) {
+			return null;
+		}
+		return (F) this.elements[this.positions[friendnumber] - 1];
+	}
+
+	/**
+	 * Add the given friend, the caller must hold the lock
+	 */
+	void join(int friendnumber, F friend) {
+		if (friendnumber >= this.positions.length) {
+			this.positions = Arrays.copyOf(this.positions,
+					Math.max(friendnumber + 1, this.positions.length * 2));
+		}
+		if (this.size == this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, this.size * 2);
+		}
+		this.elements[this.size] = friend;
+		this.positions[friendnumber] = ++this.size;
+		this.modCount++;
+	}
+
+	/**
+	 * Remove the friend with the given number, the caller must hold the lock
+	 */
+	void leave(int friendnumber) {
+		int position = this.positions[friendnumber] - 1;
+		this.positions[friendnumber] = 0;
+		this.size--;
+		if (position != this.size) {
+			ToxFriend last = (ToxFriend) this.elements[this.size];
+			this.elements[position] = last;
+			this.positions[last.getFriendnumber()] = position + 1;
+		}
+		this.elements[this.size] = null;
+		this.modCount++;
+	}
+
+	void fireJoined(F friend) {
+		for (FriendViewListener<F> listener : this.listeners) {
+			listener.onJoined(friend);
+		}
+	}
+
+	void fireLeft(F friend) {
+		for (FriendViewListener<F> listener : this.listeners) {
+			listener.onLeft(friend);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/* FriendViewListener.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+/**
+ * Listener for the changes of a {@link FriendView}. Only friends joining or
+ * leaving the view are reported, not the full view.
+ * 
+ * @param <F>
+ *            Friend type of the view
+ */
+public interface FriendViewListener<F extends ToxFriend> {
+
+	/**
+	 * Method to be executed each time a friend is added to the view
+	 * 
+	 * @param friend
+	 *            the friend that joined the view
+	 */
+	void onJoined(F friend);
+
+	/**
+	 * Method to be executed each time a friend is removed from the view
+	 * 
+	 * @param friend
+	 *            the friend that left the view
+	 */
+	void onLeft(F friend);
+}
@@ -0,0 +1,114 @@
+/* InstanceRegistry.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+/**
+ * Registry of live JTox instances by instance number. Lookups read an
+ * immutable open addressing table through a volatile field, so they never
+ * lock, box or scan. Registering and unregistering copy the table; instances
+ * are created and killed rarely compared to how often they are looked up.
+ */
+final class InstanceRegistry {
+
+	/**
+	 * Immutable table. A slot is free if its value is null.
+	 */
+	private static final class Table {
+		final int[] keys;
+		final JTox<?>[] values;
+		final int size;
+
+		Table(int capacity, int size) {
+			this.keys = new int[capacity];
+			this.values = new JTox<?>[capacity];
+			this.size = size;
+		}
+	}
+
+	private volatile Table table = new Table(16, 0);
+
+	/**
+	 * Get the instance with the given number
+	 *
+	 * @return the instance, or null if no live instance has that number
+	 */
+	JTox<?> get(int instanceNumber) {
+		Table t = this.table;
+		int mask = t.keys.length - 1;
+		int i = mix(instanceNumber) & mask;
+		JTox<?> value;
+		while ((value = t.values[i]) != null) {
+			if (t.keys[i] == instanceNumber) {
+				return value;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	synchronized void put(int instanceNumber, JTox<?> instance) {
+		Table old = this.table;
+		int size = old.size + (get(instanceNumber) == null ? 1 : 0);
+		int capacity = old.keys.length;
+		while (2 * size > capacity) {
+			capacity *= 2;
+		}
+		Table t = copy(old, capacity, size, instanceNumber);
+		insert(t, instanceNumber, instance);
+		this.table = t;
+	}
+
+	synchronized void remove(int instanceNumber) {
+		Table old = this.table;
+		if (get(instanceNumber) == null) {
+			return;
+		}
+		this.table = copy(old, old.keys.length, old.size - 1, instanceNumber);
+	}
+
+	/**
+	 * Copy all entries except the one with the given key into a new table
+	 */
+	private static Table copy(Table old, int capacity, int size, int skip) {
+		Table t = new Table(capacity, size);
+		for (int i = 0; i < old.keys.length; i++) {
+			if (old.values[i] != null && old.keys[i] != skip) {
+				insert(t, old.keys[i], old.values[i]);
+			}
+		}
+		return t;
+	}
+
+	private static void insert(Table t, int key, JTox<?> value) {
+		int mask = t.keys.length - 1;
+		int i = mix(key) & mask;
+		while (t.values[i] != null) {
+			i = (i + 1) & mask;
+		}
+		t.keys[i] = key;
+		t.values[i] = value;
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -22,14 +22,21 @@
 package im.tox.jtoxcore;
 
 import im.tox.jtoxcore.callbacks.CallbackHandler;
+import im.tox.jtoxcore.callbacks.ToxEventDispatcher;
 
-import java.io.UnsupportedEncodingException;
+import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -54,24 +61,106 @@ public class JTox<F extends ToxFriend> {
 	 */
 	public static final int TOX_MAX_NICKNAME_LENGTH = 128;
 
+	/*
+	 * Event types used in the native event buffer. These must match the
+	 * tox_event_type_t enum in callbacks.h
+	 */
+	private static final int EVENT_FRIEND_REQUEST = 0;
+	private static final int EVENT_MESSAGE = 1;
+	private static final int EVENT_ACTION = 2;
+	private static final int EVENT_NAME_CHANGE = 3;
+	private static final int EVENT_STATUS_MESSAGE = 4;
+	private static final int EVENT_USER_STATUS = 5;
+	private static final int EVENT_READ_RECEIPT = 6;
+	private static final int EVENT_CONNECTION_STATUS = 7;
+
+	private static final ToxUserStatus[] USER_STATUS_VALUES = ToxUserStatus
+			.values();
+
+	/**
+	 * Maximum number of enqueued commands run by a single call to
+	 * {@link #doTox()}, so a flood of commands can not starve tox_do
+	 */
+	private static final int MAX_COMMANDS_PER_ITERATION = 4096;
+
+	/**
+	 * Default time to wait for the read receipt of a message sent with
+	 * {@link #sendMessageAsync(ToxFriend, String)}, in milliseconds
+	 */
+	public static final long DEFAULT_RECEIPT_TIMEOUT = 60000;
+
+	/**
+	 * Interval between two calls to {@link #doTox()} in milliseconds used when
+	 * toxcore does not recommend one. This corresponds to the minimum
+	 * frequency of 20Hz suggested by the core developers.
+	 */
+	public static final int DEFAULT_DO_INTERVAL = 50;
+
 	static {
 		System.loadLibrary("jtoxcore");
 	}
 
 	/**
-	 * List containing all currently active tox instances
+	 * Registry containing all currently active tox instances
 	 */
-	private static List<Long> validPointers = Collections
-			.synchronizedList(new ArrayList<Long>());
-
-	private static Map<Integer, JTox<?>> instances = new HashMap<Integer, JTox<?>>();
-	private static ReentrantLock instanceLock = new ReentrantLock();
-	private static int instanceCounter = 0;
+	private static final InstanceRegistry instances = new InstanceRegistry();
+	private static final AtomicInteger instanceCounter = new AtomicInteger();
 	private final int instanceNumber;
 
-	private CallbackHandler<F> handler;
+	/**
+	 * Set once the instance has been killed. Only written while holding the
+	 * lock, but read without it by {@link #enqueue(Callable)}.
+	 */
+	private volatile boolean killed;
+
+	private final ToxEventDispatcher<F> dispatcher;
 	private FriendList<F> friendList;
 
+	/**
+	 * Commands enqueued by other threads, run by the thread calling
+	 * {@link #doTox()}
+	 */
+	private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Wakes up the event loop of this instance, run when a command is
+	 * enqueued
+	 */
+	private volatile Runnable wakeup;
+
+	/**
+	 * Number of events delivered and commands run so far. Only accessed by
+	 * the thread calling {@link #doTox()}.
+	 */
+	private long activity;
+
+	/**
+	 * Messages sent with {@link #sendMessageAsync(ToxFriend, String)} that are
+	 * waiting for their read receipts. Only accessed while holding the lock.
+	 */
+	private final PendingReceipts receipts = new PendingReceipts();
+
+	/**
+	 * Time to wait for read receipts in nanoseconds
+	 */
+	private volatile long receiptTimeout = TimeUnit.MILLISECONDS
+			.toNanos(DEFAULT_RECEIPT_TIMEOUT);
+
+	/**
+	 * Autosave this instance is registered with, if any
+	 */
+	private volatile ToxAutosave autosave;
+
+	/**
+	 * Live views of the friend list, created by {@link #getPresence()}
+	 */
+	private volatile FriendPresence<F> presence;
+
+	/**
+	 * Friend cache this instance was created with, if any
+	 */
+	private volatile FriendCache friendCache;
+
 	/**
 	 * This field contains the lock used for thread safety
 	 */
@@ -82,6 +171,12 @@ public class JTox<F extends ToxFriend> {
 	 */
 	private final long messengerPointer;
 
+	/**
+	 * Direct buffers the String variants of the send methods encode into, so
+	 * the text is handed to the native library without an intermediate array
+	 */
+	private static final ToxBufferPool textBuffers = new ToxBufferPool();
+
 	/**
 	 * Native call to tox_new
 	 * 
@@ -103,18 +198,15 @@ public class JTox<F extends ToxFriend> {
 	public JTox(FriendList<F> friendList, CallbackHandler<F> handler)
 			throws ToxException {
 		this.friendList = friendList;
-		this.handler = handler;
+		this.dispatcher = ToxEventDispatcher.forHandler(handler);
 		long pointer = tox_new();
 		if (pointer == 0) {
 			throw new ToxException(ToxError.TOX_UNKNOWN);
 		}
 		this.messengerPointer = pointer;
 		this.lock = new ReentrantLock();
-		validPointers.add(pointer);
-		instanceLock.lock();
-		this.instanceNumber = instanceCounter++;
-		instances.put(instanceCounter, this);
-		instanceLock.unlock();
+		this.instanceNumber = instanceCounter.getAndIncrement();
+		instances.put(this.instanceNumber, this);
 	}
 
 	/**
@@ -137,6 +229,87 @@ public class JTox<F extends ToxFriend> {
 		this.load(data);
 	}
 
+	/**
+	 * Creates a new instance of JTox and stores the pointer to the internal
+	 * struct in messengerPointer. Also attempts to load the remaining bytes of
+	 * the specified direct buffer into this instance. The data is read by the
+	 * native library in place, without being copied to the Java heap.
+	 * 
+	 * @param data
+	 *            direct buffer containing the data to load. Its position is
+	 *            advanced to its limit.
+	 * @param friendList
+	 *            friend list to use with this tox instance
+	 * @param handler
+	 *            callback handler to use with this instance
+	 * @throws ToxException
+	 *             when the native call indicates an error
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct
+	 */
+	public JTox(ByteBuffer data, FriendList<F> friendList,
+			CallbackHandler<F> handler) throws ToxException {
+		this(friendList, handler);
+		this.load(data);
+	}
+
+	/**
+	 * Creates a new instance of JTox and stores the pointer to the internal
+	 * struct in messengerPointer. Also attempts to load the specified save
+	 * file into this instance. The file is read through a FileChannel into a
+	 * direct buffer, so its contents never pass through the Java heap.
+	 * 
+	 * @param file
+	 *            the save file to load
+	 * @param friendList
+	 *            friend list to use with this tox instance
+	 * @param handler
+	 *            callback handler to use with this instance
+	 * @throws ToxException
+	 *             when the native call indicates an error
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public JTox(File file, FriendList<F> friendList,
+			CallbackHandler<F> handler) throws ToxException, IOException {
+		this(SaveFiles.read(file), friendList, handler);
+	}
+
+	/**
+	 * Creates a new instance of JTox and stores the pointer to the internal
+	 * struct in messengerPointer. Also attempts to load the specified save
+	 * file into this instance. Instead of fetching all friend data from the
+	 * native library before returning, the friend list is filled from the
+	 * given cache, and checked against the native state in the background,
+	 * see {@link FriendCache}. If the cache can not be loaded, the friend data
+	 * is fetched right away.
+	 * 
+	 * @param file
+	 *            the save file to load
+	 * @param cache
+	 *            the friend cache of this instance
+	 * @param friendList
+	 *            friend list to use with this tox instance
+	 * @param handler
+	 *            callback handler to use with this instance
+	 * @throws ToxException
+	 *             when the native call indicates an error
+	 * @throws IOException
+	 *             if the save file could not be read
+	 */
+	public JTox(File file, FriendCache cache, FriendList<F> friendList,
+			CallbackHandler<F> handler) throws ToxException, IOException {
+		this(friendList, handler);
+		this.friendCache = cache;
+		loadData(SaveFiles.read(file));
+		if (cache.load(friendList)) {
+			cache.verify(this, true);
+		} else {
+			refreshList();
+			cache.verify(this, false);
+		}
+	}
+
 	/**
 	 * Native call to tox_get_address
 	 * 
@@ -145,7 +318,7 @@ public class JTox<F extends ToxFriend> {
 	 * 
 	 * @return the client's address on success, null on failure
 	 */
-	private native String tox_get_address(long messengerPointer);
+	private native byte[] tox_get_address(long messengerPointer);
 
 	/**
 	 * Get our own address
@@ -155,9 +328,9 @@ public class JTox<F extends ToxFriend> {
 	 *             when the instance has been killed or an error occurred when
 	 *             trying to get our address
 	 */
-	public String getAddress() throws ToxException {
+	public ToxId getToxId() throws ToxException {
 		this.lock.lock();
-		String address;
+		byte[] address;
 		try {
 			checkPointer();
 			address = tox_get_address(this.messengerPointer);
@@ -165,10 +338,22 @@ public class JTox<F extends ToxFriend> {
 			this.lock.unlock();
 		}
 
-		if (address == null || address.equals("")) {
+		if (address == null) {
 			throw new ToxException(ToxError.TOX_UNKNOWN);
 		}
-		return address;
+		return ToxId.wrap(address);
+	}
+
+	/**
+	 * Get our own address as a hexadecimal String
+	 * 
+	 * @return our client's address
+	 * @throws ToxException
+	 *             when the instance has been killed or an error occurred when
+	 *             trying to get our address
+	 */
+	public String getAddress() throws ToxException {
+		return getToxId().toHexString();
 	}
 
 	/**
@@ -200,44 +385,75 @@ public class JTox<F extends ToxFriend> {
 	}
 
 	/**
-	 * Native call to tox_set_status_message
+	 * Sets our status message
+	 * 
+	 * @param message
+	 *            our new status message
+	 * @throws ToxException
+	 *             if the instance has been killed, the message was too long, or
+	 *             another error occurred
+	 */
+	public void setStatusMessage(String message) throws ToxException {
+		ByteBuffer buffer = textBuffers.acquire();
+		try {
+			setStatusMessage(buffer, 0, encodeText(message, buffer));
+		} finally {
+			textBuffers.release(buffer);
+		}
+	}
+
+	/**
+	 * Native call to tox_set_status_message, reading the message directly from
+	 * a direct ByteBuffer
 	 * 
 	 * @param messengerPointer
 	 *            pointer to the internal messenger struct
 	 * @param message
-	 *            our new status message
+	 *            direct buffer containing our new status message
+	 * @param offset
+	 *            index of the first byte of the message in the buffer
 	 * @param length
 	 *            the length of the new status message in bytes
 	 * @return false on success, true on failure
 	 */
-	private native boolean tox_set_status_message(long messengerPointer,
-			byte[] message, int length);
+	private native boolean tox_set_status_message_direct(long messengerPointer,
+			ByteBuffer message, int offset, int length);
 
 	/**
-	 * Sets our status message
+	 * Sets our status message from UTF-8 encoded bytes in a direct buffer. The
+	 * bytes are passed to the native library without being copied.
 	 * 
 	 * @param message
-	 *            our new status message
+	 *            direct buffer containing the UTF-8 encoded status message
+	 * @param offset
+	 *            index of the first byte of the message in the buffer
+	 * @param length
+	 *            length of the message in bytes
 	 * @throws ToxException
 	 *             if the instance has been killed, the message was too long, or
 	 *             another error occurred
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct, or the given range is not
+	 *             inside the buffer
 	 */
-	public void setStatusMessage(String message) throws ToxException {
-		this.lock.lock();
-		byte[] messageArray = getStringBytes(message);
-		if (messageArray.length >= TOX_MAX_STATUSMESSAGE_LENGTH) {
+	public void setStatusMessage(ByteBuffer message, int offset, int length)
+			throws ToxException {
+		checkDirectBuffer(message, offset, length);
+		if (length >= TOX_MAX_STATUSMESSAGE_LENGTH) {
 			throw new ToxException(ToxError.TOX_TOOLONG);
 		}
+		this.lock.lock();
 		try {
 			checkPointer();
 
-			if (tox_set_status_message(this.messengerPointer, messageArray,
-					messageArray.length)) {
+			if (tox_set_status_message_direct(this.messengerPointer, message,
+					offset, length)) {
 				throw new ToxException(ToxError.TOX_UNKNOWN);
 			}
 		} finally {
 			this.lock.unlock();
 		}
+		markDirty();
 	}
 
 	/**
@@ -247,7 +463,7 @@ public class JTox<F extends ToxFriend> {
 	 *            pointer to the internal messenger struct
 	 * @return our name
 	 */
-	private native String tox_get_self_name(long messengerPointer);
+	private native byte[] tox_get_self_name(long messengerPointer);
 
 	/**
 	 * Function to get our current name
@@ -258,7 +474,7 @@ public class JTox<F extends ToxFriend> {
 	 */
 	public String getSelfName() throws ToxException {
 		this.lock.lock();
-		String name;
+		byte[] name;
 		try {
 			checkPointer();
 
@@ -270,51 +486,83 @@ public class JTox<F extends ToxFriend> {
 		if (name == null) {
 			throw new ToxException(ToxError.TOX_UNKNOWN);
 		}
-		return name;
+		return getByteString(name);
+
+	}
 
+	/**
+	 * Sets our nickname
+	 * 
+	 * @param newname
+	 *            the new name to set. Maximum length is 128 bytes. This means
+	 *            that a name containing UTF-8 characters has a shorter
+	 *            character limit than one only using ASCII.
+	 * @throws ToxException
+	 *             if the instance was killed, the name was too long, or another
+	 *             error occurred
+	 */
+	public void setName(String newname) throws ToxException {
+		ByteBuffer buffer = textBuffers.acquire();
+		try {
+			setName(buffer, 0, encodeText(newname, buffer));
+		} finally {
+			textBuffers.release(buffer);
+		}
 	}
 
 	/**
-	 * Native call to tox_set_name
+	 * Native call to tox_set_name, reading the name directly from a direct
+	 * ByteBuffer
 	 * 
 	 * @param messengerPointer
 	 *            pointer to the internal messenger struct
 	 * @param newname
-	 *            the new name
+	 *            direct buffer containing the new name
+	 * @param offset
+	 *            index of the first byte of the name in the buffer
 	 * @param length
 	 *            length of the new name in byte
 	 * @return false on success, true on failure
 	 */
-	private native boolean tox_set_name(long messengerPointer, byte[] newname,
-			int length);
+	private native boolean tox_set_name_direct(long messengerPointer,
+			ByteBuffer newname, int offset, int length);
 
 	/**
-	 * Sets our nickname
+	 * Sets our nickname from UTF-8 encoded bytes in a direct buffer. The bytes
+	 * are passed to the native library without being copied.
 	 * 
 	 * @param newname
-	 *            the new name to set. Maximum length is 128 bytes. This means
-	 *            that a name containing UTF-8 characters has a shorter
-	 *            character limit than one only using ASCII.
+	 *            direct buffer containing the UTF-8 encoded name. Maximum
+	 *            length is 128 bytes.
+	 * @param offset
+	 *            index of the first byte of the name in the buffer
+	 * @param length
+	 *            length of the name in bytes
 	 * @throws ToxException
 	 *             if the instance was killed, the name was too long, or another
 	 *             error occurred
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct, or the given range is not
+	 *             inside the buffer
 	 */
-	public void setName(String newname) throws ToxException {
-		this.lock.lock();
-		byte[] newnameArray = getStringBytes(newname);
-		if (newnameArray.length >= TOX_MAX_NICKNAME_LENGTH) {
+	public void setName(ByteBuffer newname, int offset, int length)
+			throws ToxException {
+		checkDirectBuffer(newname, offset, length);
+		if (length >= TOX_MAX_NICKNAME_LENGTH) {
 			throw new ToxException(ToxError.TOX_TOOLONG);
 		}
+		this.lock.lock();
 		try {
 			checkPointer();
 
-			if (tox_set_name(this.messengerPointer, newnameArray,
-					newnameArray.length)) {
+			if (tox_set_name_direct(this.messengerPointer, newname, offset,
+					length)) {
 				throw new ToxException(ToxError.TOX_UNKNOWN);
 			}
 		} finally {
 			this.lock.unlock();
 		}
+		markDirty();
 	}
 
 	/**
@@ -386,13 +634,39 @@ public class JTox<F extends ToxFriend> {
 	 */
 	public F addFriend(String address, String data) throws ToxException,
 			FriendExistsException {
+		return addFriend(ToxId.fromHex(address), data);
+	}
+
+	/**
+	 * Method used to add a friend. On success, the friend is added to the list
+	 * of friends, and a reference to the friend is returned.
+	 * 
+	 * @param address
+	 *            the full address (including nospam and checksum) of the
+	 *            friend you want to add
+	 * @param data
+	 *            an optional message you want to send to your friend
+	 * @return the friend
+	 * @throws ToxException
+	 *             if the instance has been killed or an error code is returned
+	 *             by the native tox_addfriend call
+	 * @throws FriendExistsException
+	 *             if the friend already exists
+	 * @throws IllegalArgumentException
+	 *             if the given id is only a public key
+	 */
+	public F addFriend(ToxId address, String data) throws ToxException,
+			FriendExistsException {
+		if (!address.isAddress()) {
+			throw new IllegalArgumentException(
+					"A full address is needed to send a friend request");
+		}
 		byte[] dataArray = getStringBytes(data);
-		byte[] addressArray = hexToByteArray(address);
 		this.lock.lock();
 		int errcode;
 		try {
 			checkPointer();
-			errcode = tox_add_friend(this.messengerPointer, addressArray,
+			errcode = tox_add_friend(this.messengerPointer, address.bytes(),
 					dataArray, dataArray.length);
 
 		} finally {
@@ -400,7 +674,9 @@ public class JTox<F extends ToxFriend> {
 		}
 
 		if (errcode >= 0) {
+			markDirty();
 			F f = this.friendList.addFriend(errcode);
+			updatePresence(f);
 			return f;
 		}
 		throw new ToxException(errcode);
@@ -434,20 +710,40 @@ public class JTox<F extends ToxFriend> {
 	 */
 	public F confirmRequest(String address) throws ToxException,
 			FriendExistsException {
-		byte[] addressArray = hexToByteArray(address);
+		return confirmRequest(ToxId.fromHex(address));
+	}
+
+	/**
+	 * Confirm a friend request, or add a friend to your own list without
+	 * sending them a friend request. If successful, the Friend is added to the
+	 * list, and a reference to the friend is returned.
+	 * 
+	 * @param address
+	 *            public key or address of the friend to add
+	 * @return the friend
+	 * @throws ToxException
+	 *             if the instance was killed or an error occurred when adding
+	 *             the friend
+	 * @throws FriendExistsException
+	 *             if the friend already exists
+	 */
+	public F confirmRequest(ToxId address) throws ToxException,
+			FriendExistsException {
 		this.lock.lock();
 		int errcode;
 		try {
 			checkPointer();
 
 			errcode = tox_add_friend_norequest(this.messengerPointer,
-					addressArray);
+					address.bytes());
 		} finally {
 			this.lock.unlock();
 		}
 
 		if (errcode >= 0) {
+			markDirty();
 			F friend = this.friendList.addFriend(errcode);
+			updatePresence(friend);
 			return friend;
 		}
 		throw new ToxException(errcode);
@@ -481,50 +777,142 @@ public class JTox<F extends ToxFriend> {
 			if (tox_del_friend(this.messengerPointer, friendnumber)) {
 				throw new ToxException(ToxError.TOX_UNKNOWN);
 			}
+			this.receipts.cancelFriend(friendnumber);
 		} finally {
 			this.lock.unlock();
 		}
 		this.friendList.removeFriend(friendnumber);
+		FriendPresence<F> presence = this.presence;
+		if (presence != null) {
+			presence.remove(friendnumber);
+		}
+		markDirty();
+	}
+
+	/**
+	 * Sends a message to the specified friend. Add the message ID of the sent
+	 * message to the list of sent messages of the receiving friend.
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param message
+	 *            the message
+	 * @return the message ID of the sent message. This is stored in the
+	 *         Friend's list of sent messages.
+	 * @throws ToxException
+	 *             if the instance has been killed, the message was too long or
+	 *             the message was not sent
+	 */
+	public int sendMessage(F friend, String message) throws ToxException {
+		ByteBuffer buffer = textBuffers.acquire();
+		try {
+			return sendMessage(friend, buffer, 0, encodeText(message, buffer));
+		} finally {
+			textBuffers.release(buffer);
+		}
+	}
+
+	/**
+	 * Sends a message to the specified friend, and returns a future that
+	 * completes once the friend's read receipt for the message arrives. If no
+	 * receipt arrives within the receipt timeout, the future fails with a
+	 * TimeoutException.
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param message
+	 *            the message
+	 * @return a future for the delivery of the message
+	 * @throws ToxException
+	 *             if the instance has been killed, the message was too long or
+	 *             the message was not sent
+	 * @see #setReceiptTimeout(long, TimeUnit)
+	 */
+	public ToxReceiptFuture sendMessageAsync(F friend, String message)
+			throws ToxException {
+		this.lock.lock();
+		try {
+			int messageId = sendMessage(friend, message);
+			ToxReceiptFuture future = new ToxReceiptFuture(
+					friend.getFriendnumber(), messageId, System.nanoTime()
+							+ this.receiptTimeout);
+			this.receipts.add(future);
+			return future;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Set how long {@link #sendMessageAsync(ToxFriend, String)} waits for read
+	 * receipts. Only affects messages sent afterwards. After the timeout was
+	 * shortened, messages sent before the change may keep earlier messages
+	 * from expiring until their own, longer timeout has passed.
+	 * 
+	 * @param timeout
+	 *            the new timeout
+	 * @param unit
+	 *            unit of the timeout
+	 */
+	public void setReceiptTimeout(long timeout, TimeUnit unit) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive");
+		}
+		this.receiptTimeout = unit.toNanos(timeout);
 	}
 
 	/**
-	 * Native call to tox_send_message
+	 * Native call to tox_send_message, reading the message directly from a
+	 * direct ByteBuffer
 	 * 
 	 * @param messengerPointer
 	 *            pointer to the internal messenger struct
 	 * @param friendnumber
 	 *            the number of the friend
 	 * @param message
-	 *            the message
+	 *            direct buffer containing the message
+	 * @param offset
+	 *            index of the first byte of the message in the buffer
 	 * @param length
 	 *            length of the message in bytes
 	 * @return the message ID on success, 0 on failure
 	 */
-	private native int tox_send_message(long messengerPointer,
-			int friendnumber, byte[] message, int length);
+	private native int tox_send_message_direct(long messengerPointer,
+			int friendnumber, ByteBuffer message, int offset, int length);
 
 	/**
-	 * Sends a message to the specified friend. Add the message ID of the sent
-	 * message to the list of sent messages of the receiving friend.
+	 * Sends a message stored as UTF-8 encoded bytes in a direct buffer to the
+	 * specified friend. The bytes are passed to the native library without
+	 * being copied, so callers that already hold encoded messages can send
+	 * without any intermediate arrays. See {@link ToxBufferPool} for reusable
+	 * buffers.
 	 * 
 	 * @param friend
 	 *            the friend
 	 * @param message
-	 *            the message
-	 * @return the message ID of the sent message. This is stored in the
-	 *         Friend's list of sent messages.
+	 *            direct buffer containing the UTF-8 encoded message
+	 * @param offset
+	 *            index of the first byte of the message in the buffer
+	 * @param length
+	 *            length of the message in bytes
+	 * @return the message ID of the sent message. If you want to receive read
+	 *         receipts, hang on to this value.
 	 * @throws ToxException
 	 *             if the instance has been killed or the message was not sent
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct, or the given range is not
+	 *             inside the buffer
 	 */
-	public int sendMessage(F friend, String message) throws ToxException {
+	public int sendMessage(F friend, ByteBuffer message, int offset,
+			int length) throws ToxException {
+		checkDirectBuffer(message, offset, length);
 		this.lock.lock();
-		byte[] messageArray = getStringBytes(message);
 		int result;
 		try {
 			checkPointer();
 
-			result = tox_send_message(this.messengerPointer,
-					friend.getFriendnumber(), messageArray, messageArray.length);
+			result = tox_send_message_direct(this.messengerPointer,
+					friend.getFriendnumber(), message, offset, length);
 		} finally {
 			this.lock.unlock();
 		}
@@ -591,39 +979,72 @@ public class JTox<F extends ToxFriend> {
 	}
 
 	/**
-	 * Native call to tox_send_action
+	 * Sends an IRC-like /me-action to a friend
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param action
+	 *            the action
+	 * @throws ToxException
+	 *             if the instance has been killed, the action was too long or
+	 *             the send failed
+	 */
+	public void sendAction(F friend, String action) throws ToxException {
+		ByteBuffer buffer = textBuffers.acquire();
+		try {
+			sendAction(friend, buffer, 0, encodeText(action, buffer));
+		} finally {
+			textBuffers.release(buffer);
+		}
+	}
+
+	/**
+	 * Native call to tox_send_action, reading the action directly from a direct
+	 * ByteBuffer
 	 * 
 	 * @param messengerPointer
 	 *            pointer to the internal messenger struct
 	 * @param friendnumber
 	 *            the number of the friend
 	 * @param action
-	 *            the action to send
+	 *            direct buffer containing the action
+	 * @param offset
+	 *            index of the first byte of the action in the buffer
 	 * @param length
 	 *            length of the action in bytes
 	 * @return false on success, true on failure
 	 */
-	private native boolean tox_send_action(long messengerPointer,
-			int friendnumber, byte[] action, int length);
+	private native boolean tox_send_action_direct(long messengerPointer,
+			int friendnumber, ByteBuffer action, int offset, int length);
 
 	/**
-	 * Sends an IRC-like /me-action to a friend
+	 * Sends an IRC-like /me-action stored as UTF-8 encoded bytes in a direct
+	 * buffer to a friend. The bytes are passed to the native library without
+	 * being copied.
 	 * 
 	 * @param friend
 	 *            the friend
 	 * @param action
-	 *            the action
+	 *            direct buffer containing the UTF-8 encoded action
+	 * @param offset
+	 *            index of the first byte of the action in the buffer
+	 * @param length
+	 *            length of the action in bytes
 	 * @throws ToxException
 	 *             if the instance has been killed or the send failed
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct, or the given range is not
+	 *             inside the buffer
 	 */
-	public void sendAction(F friend, String action) throws ToxException {
+	public void sendAction(F friend, ByteBuffer action, int offset, int length)
+			throws ToxException {
+		checkDirectBuffer(action, offset, length);
 		this.lock.lock();
-		byte[] actionArray = getStringBytes(action);
 		try {
 			checkPointer();
 
-			if (tox_send_action(this.messengerPointer,
-					friend.getFriendnumber(), actionArray, actionArray.length)) {
+			if (tox_send_action_direct(this.messengerPointer,
+					friend.getFriendnumber(), action, offset, length)) {
 				throw new ToxException(ToxError.TOX_SEND_FAILED);
 			}
 		} finally {
@@ -693,12 +1114,229 @@ public class JTox<F extends ToxFriend> {
 		try {
 			checkPointer();
 
+			runCommands(MAX_COMMANDS_PER_ITERATION);
 			tox_do(this.messengerPointer);
+			this.receipts.expire(System.nanoTime());
 		} finally {
 			this.lock.unlock();
 		}
 	}
 
+	/**
+	 * Enqueue a command to be run by the thread calling {@link #doTox()},
+	 * right before its next call to tox_do. Enqueueing never blocks: instead
+	 * of competing with the event loop for the instance lock, the calling
+	 * thread hands the work over and can wait for the result through the
+	 * returned Future. Commands run in the order they were enqueued, while
+	 * the event loop holds the instance lock, so they can call any method of
+	 * this instance.
+	 * <p/>
+	 * If the instance is killed before the command ran, the command is still
+	 * run, and any method it calls on this instance fails with
+	 * {@link ToxError#TOX_KILLED_INSTANCE}.
+	 * 
+	 * @param command
+	 *            the command to run
+	 * @return a Future for the result of the command
+	 */
+	public <T> Future<T> enqueue(Callable<T> command) {
+		FutureTask<T> task = new FutureTask<T>(command);
+		this.commands.offer(task);
+		if (this.killed) {
+			runCommands(Integer.MAX_VALUE);
+		}
+		Runnable wakeup = this.wakeup;
+		if (wakeup != null) {
+			wakeup.run();
+		}
+		return task;
+	}
+
+	/**
+	 * Enqueue {@link #sendMessage(ToxFriend, String)}
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param message
+	 *            the message
+	 * @return a Future for the message ID of the sent message
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Integer> enqueueSendMessage(final F friend,
+			final String message) {
+		return enqueue(new Callable<Integer>() {
+			@Override
+			public Integer call() throws ToxException {
+				return sendMessage(friend, message);
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #sendMessage(ToxFriend, String, int)}
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param message
+	 *            the message
+	 * @param messageID
+	 *            the message ID to use
+	 * @return a Future for the message ID of the sent message
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Integer> enqueueSendMessage(final F friend,
+			final String message, final int messageID) {
+		return enqueue(new Callable<Integer>() {
+			@Override
+			public Integer call() throws ToxException {
+				return sendMessage(friend, message, messageID);
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #sendAction(ToxFriend, String)}
+	 * 
+	 * @param friend
+	 *            the friend
+	 * @param action
+	 *            the action
+	 * @return a Future that completes once the action was sent
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Void> enqueueSendAction(final F friend, final String action) {
+		return enqueue(new Callable<Void>() {
+			@Override
+			public Void call() throws ToxException {
+				sendAction(friend, action);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #setName(String)}
+	 * 
+	 * @param newname
+	 *            the new name to set
+	 * @return a Future that completes once the name was set
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Void> enqueueSetName(final String newname) {
+		return enqueue(new Callable<Void>() {
+			@Override
+			public Void call() throws ToxException {
+				setName(newname);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #setStatusMessage(String)}
+	 * 
+	 * @param message
+	 *            our new status message
+	 * @return a Future that completes once the status message was set
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Void> enqueueSetStatusMessage(final String message) {
+		return enqueue(new Callable<Void>() {
+			@Override
+			public Void call() throws ToxException {
+				setStatusMessage(message);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #setUserStatus(ToxUserStatus)}
+	 * 
+	 * @param status
+	 *            the status to set
+	 * @return a Future that completes once the status was set
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Void> enqueueSetUserStatus(final ToxUserStatus status) {
+		return enqueue(new Callable<Void>() {
+			@Override
+			public Void call() throws ToxException {
+				setUserStatus(status);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #addFriend(ToxId, String)}
+	 * 
+	 * @param address
+	 *            the full address of the friend you want to add
+	 * @param data
+	 *            an optional message you want to send to your friend
+	 * @return a Future for the added friend
+	 * @see #enqueue(Callable)
+	 */
+	public Future<F> enqueueAddFriend(final ToxId address, final String data) {
+		return enqueue(new Callable<F>() {
+			@Override
+			public F call() throws ToxException, FriendExistsException {
+				return addFriend(address, data);
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #confirmRequest(ToxId)}
+	 * 
+	 * @param address
+	 *            public key or address of the friend to add
+	 * @return a Future for the added friend
+	 * @see #enqueue(Callable)
+	 */
+	public Future<F> enqueueConfirmRequest(final ToxId address) {
+		return enqueue(new Callable<F>() {
+			@Override
+			public F call() throws ToxException, FriendExistsException {
+				return confirmRequest(address);
+			}
+		});
+	}
+
+	/**
+	 * Enqueue {@link #deleteFriend(int)}
+	 * 
+	 * @param friendnumber
+	 *            the friend to delete
+	 * @return a Future that completes once the friend was deleted
+	 * @see #enqueue(Callable)
+	 */
+	public Future<Void> enqueueDeleteFriend(final int friendnumber) {
+		return enqueue(new Callable<Void>() {
+			@Override
+			public Void call() throws ToxException {
+				deleteFriend(friendnumber);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Run enqueued commands. Exceptions thrown by a command are stored in its
+	 * Future.
+	 * 
+	 * @param max
+	 *            maximum number of commands to run
+	 */
+	private void runCommands(int max) {
+		Runnable command;
+		for (int i = 0; i < max && (command = this.commands.poll()) != null; i++) {
+			command.run();
+			this.activity++;
+		}
+	}
+
 	/**
 	 * Native call to tox_bootstrap_from_address
 	 * 
@@ -734,16 +1372,38 @@ public class JTox<F extends ToxFriend> {
 	 */
 	public void bootstrap(String host, int port, String pubkey)
 			throws ToxException, UnknownHostException {
+		bootstrap(host, port, ToxId.fromHex(pubkey));
+	}
+
+	/**
+	 * Method used to bootstrap the client's connection.
+	 * 
+	 * @param host
+	 *            Hostname or IP(v4, v6) address to connect to. If the hostname
+	 *            contains non-ASCII characters, convert it to punycode when
+	 *            calling this method.
+	 * @param port
+	 *            port to connect to
+	 * @param pubkey
+	 *            public key of the bootstrap node
+	 * @throws ToxException
+	 *             if the instance has been killed or an invalid port was
+	 *             specified
+	 * @throws UnknownHostException
+	 *             if the host could not be resolved or the IP address was
+	 *             invalid
+	 */
+	public void bootstrap(String host, int port, ToxId pubkey)
+			throws ToxException, UnknownHostException {
 		if (port < 0 || port > 65535) {
 			throw new ToxException(ToxError.TOX_INVALID_PORT);
 		}
-		byte[] pubkeyArray = hexToByteArray(pubkey);
 		this.lock.lock();
 		try {
 			checkPointer();
 
 			if (tox_bootstrap_from_address(this.messengerPointer, host, port,
-					pubkeyArray) == 0) {
+					pubkey.bytes()) == 0) {
 				throw new UnknownHostException(host);
 			}
 
@@ -752,6 +1412,65 @@ public class JTox<F extends ToxFriend> {
 		}
 	}
 
+	/**
+	 * Native call to tox_do_interval
+	 * 
+	 * @param messengerPointer
+	 *            pointer to the internal messenger struct
+	 * @return the recommended interval in milliseconds, or -1 if the native
+	 *         library was built against a toxcore version without
+	 *         tox_do_interval
+	 */
+	private native int tox_do_interval(long messengerPointer);
+
+	/**
+	 * Get the interval toxcore recommends between two calls to
+	 * {@link #doTox()}. This may change depending on what the instance is
+	 * doing.
+	 * 
+	 * @return the recommended interval in milliseconds, or
+	 *         {@link #DEFAULT_DO_INTERVAL} if the toxcore version in use does
+	 *         not give a recommendation
+	 * @throws ToxException
+	 *             if the instance has been killed
+	 */
+	public int getDoInterval() throws ToxException {
+		this.lock.lock();
+		int interval;
+		try {
+			checkPointer();
+
+			interval = tox_do_interval(this.messengerPointer);
+		} finally {
+			this.lock.unlock();
+		}
+		return interval > 0 ? interval : DEFAULT_DO_INTERVAL;
+	}
+
+	/**
+	 * Set the hook that wakes up the event loop of this instance. It is run
+	 * on the enqueueing thread whenever a command is enqueued, so the event
+	 * loop can run the command right away instead of after its sleep. It
+	 * must not block.
+	 * 
+	 * @param wakeup
+	 *            the hook, or null if there is no event loop to wake up
+	 */
+	void setWakeup(Runnable wakeup) {
+		this.wakeup = wakeup;
+	}
+
+	/**
+	 * Get a counter that grows whenever {@link #doTox()} delivers events or
+	 * runs commands, so event loops can tell whether an iteration did any
+	 * work. Must only be called from the thread calling doTox.
+	 * 
+	 * @return the number of events delivered and commands run so far
+	 */
+	long getActivity() {
+		return this.activity;
+	}
+
 	/**
 	 * Native call to tox_isconnected
 	 * 
@@ -800,12 +1519,16 @@ public class JTox<F extends ToxFriend> {
 		try {
 			checkPointer();
 
-			validPointers.remove(this.messengerPointer);
+			this.killed = true;
 			tox_kill(this.messengerPointer);
+			this.receipts.failAll(new ToxException(
+					ToxError.TOX_KILLED_INSTANCE));
 		} finally {
 			this.lock.unlock();
 		}
 		instances.remove(this.instanceNumber);
+		runCommands(Integer.MAX_VALUE);
+		writeFriendCache();
 	}
 
 	/**
@@ -826,14 +1549,128 @@ public class JTox<F extends ToxFriend> {
 	 *             if the instance has been killed
 	 */
 	public byte[] save() throws ToxException {
+		byte[] data;
+		this.lock.lock();
+		try {
+			checkPointer();
+
+			data = tox_save(this.messengerPointer);
+		} finally {
+			this.lock.unlock();
+		}
+		return data;
+	}
+
+	/**
+	 * Native call to tox_size
+	 * 
+	 * @param messengerPointer
+	 *            pointer to the internal messenger struct
+	 * @return the size of the saved data in bytes
+	 */
+	private native int tox_size(long messengerPointer);
+
+	/**
+	 * Get the number of bytes {@link #save(ByteBuffer)} writes
+	 * 
+	 * @return the size of the saved data in bytes
+	 * @throws ToxException
+	 *             if the instance has been killed
+	 */
+	public int getSaveSize() throws ToxException {
+		this.lock.lock();
+		try {
+			checkPointer();
+
+			return tox_size(this.messengerPointer);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Native call to tox_save, writing directly into a direct ByteBuffer
+	 * 
+	 * @param messengerPointer
+	 *            pointer to the internal messenger struct
+	 * @param buffer
+	 *            direct buffer to save to
+	 * @param offset
+	 *            index of the first byte to write
+	 * @return false on success, true on failure
+	 */
+	private native boolean tox_save_direct(long messengerPointer,
+			ByteBuffer buffer, int offset);
+
+	/**
+	 * Save the internal messenger data into a direct buffer, starting at the
+	 * buffer's current position. The native library writes into the buffer in
+	 * place. On success, the position is advanced past the saved data.
+	 * 
+	 * @param buffer
+	 *            direct buffer with at least {@link #getSaveSize()} bytes
+	 *            remaining
+	 * @return the number of bytes written
+	 * @throws ToxException
+	 *             if the instance has been killed, or an error occurred while
+	 *             saving
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct
+	 * @throws BufferOverflowException
+	 *             if the data does not fit into the remaining space of the
+	 *             buffer
+	 */
+	public int save(ByteBuffer buffer) throws ToxException {
+		int position = buffer.position();
+		int size;
+		checkDirectBuffer(buffer, position, buffer.remaining());
 		this.lock.lock();
 		try {
 			checkPointer();
 
-			return tox_save(this.messengerPointer);
+			size = tox_size(this.messengerPointer);
+			if (size > buffer.remaining()) {
+				throw new BufferOverflowException();
+			}
+			if (tox_save_direct(this.messengerPointer, buffer, position)) {
+				throw new ToxException(ToxError.TOX_UNKNOWN);
+			}
+			buffer.position(position + size);
 		} finally {
 			this.lock.unlock();
 		}
+		return size;
+	}
+
+	/**
+	 * Save the internal messenger data to a file. The data is saved into a
+	 * direct buffer and written through a FileChannel, so it never passes
+	 * through the Java heap. The file is replaced atomically: the data is
+	 * written to a temporary file in the same directory, which is then renamed
+	 * over the target, so a crash while saving never leaves a truncated save
+	 * file behind.
+	 * 
+	 * @param file
+	 *            the file to save to
+	 * @throws ToxException
+	 *             if the instance has been killed, or an error occurred while
+	 *             saving
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void save(File file) throws ToxException, IOException {
+		ByteBuffer buffer;
+		this.lock.lock();
+		try {
+			checkPointer();
+
+			buffer = ByteBuffer.allocateDirect(tox_size(this.messengerPointer));
+			save(buffer);
+		} finally {
+			this.lock.unlock();
+		}
+		buffer.flip();
+		SaveFiles.write(file, buffer);
 	}
 
 	/**
@@ -874,99 +1711,166 @@ public class JTox<F extends ToxFriend> {
 	}
 
 	/**
-	 * Refresh the friend list, looking for new friends, status changes, name
-	 * changes etc. (This function is probably not needed, and will possibly
-	 * become private in later versions)
+	 * Native call to tox_load, reading the data directly from a direct
+	 * ByteBuffer
 	 * 
+	 * @param messengerPointer
+	 *            pointer to the internal messenger struct
+	 * @param data
+	 *            direct buffer containing the data to load
+	 * @param offset
+	 *            index of the first byte of the data in the buffer
+	 * @param length
+	 *            the length of the data in bytes
+	 * @return false on success, true on failure
+	 */
+	private native boolean tox_load_direct(long messengerPointer,
+			ByteBuffer data, int offset, int length);
+
+	/**
+	 * Load the remaining bytes of the specified direct buffer into this tox
+	 * instance.
+	 * 
+	 * @param data
+	 *            direct buffer containing the data to load
 	 * @throws ToxException
-	 *             if the instance was killed, or an internal error occured
+	 *             if the instance has been killed, or an error occurred while
+	 *             loading
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct
 	 */
-	private void refreshList() throws ToxException {
-		for (int i : getInternalFriendList()) {
-			this.friendList.addFriendIfNotExists(i);
-			getClientId(i);
-			getName(i);
-			getStatusMessage(i);
-			getUserStatus(i);
+	private void load(ByteBuffer data) throws ToxException {
+		this.lock.lock();
+		try {
+			loadData(data);
+			refreshList();
+		} finally {
+			this.lock.unlock();
 		}
 	}
 
 	/**
-	 * Native call to tox_get_friendlist
+	 * Load the remaining bytes of the specified direct buffer into this tox
+	 * instance, without refreshing the friend list
 	 * 
-	 * @param messengerPointer
-	 *            pointer to the internal messenger struct
-	 * @return array containing valid friend numbers
+	 * @param data
+	 *            direct buffer containing the data to load
+	 * @throws ToxException
+	 *             if the instance has been killed, or an error occurred while
+	 *             loading
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct
 	 */
-	private native int[] tox_get_friendlist(long messengerPointer);
+	private void loadData(ByteBuffer data) throws ToxException {
+		int position = data.position();
+		int length = data.remaining();
+		checkDirectBuffer(data, position, length);
+		this.lock.lock();
+		try {
+			checkPointer();
+
+			if (tox_load_direct(this.messengerPointer, data, position, length)) {
+				throw new ToxException(ToxError.TOX_UNKNOWN);
+			}
+			data.position(position + length);
+		} finally {
+			this.lock.unlock();
+		}
+	}
 
 	/**
-	 * Get a list of all currently valid friend numbers.
+	 * Refresh the friend list, looking for new friends, status changes, name
+	 * changes etc. All friend data is fetched from the native library in a
+	 * single call and decoded straight into the friend list.
 	 * 
-	 * @return ArrayList containing the
+	 * @return the numbers of all friends known to the native library
 	 * @throws ToxException
-	 *             if the instance was killed, or the list was not retrieved
+	 *             if the instance was killed, or an internal error occured
 	 */
-	private ArrayList<Integer> getInternalFriendList() throws ToxException {
+	private BitSet refreshList() throws ToxException {
 		this.lock.lock();
-		int[] ids;
+		byte[] snapshot;
 		try {
 			checkPointer();
 
-			ids = tox_get_friendlist(this.messengerPointer);
+			snapshot = tox_get_friend_snapshot(this.messengerPointer);
 		} finally {
 			this.lock.unlock();
 		}
 
-		if (ids == null) {
+		if (snapshot == null) {
 			throw new ToxException(ToxError.TOX_UNKNOWN);
 		}
-		ArrayList<Integer> list = new ArrayList<Integer>();
-		for (int i : ids) {
-			list.add(i);
+
+		ByteBuffer buffer = ByteBuffer.wrap(snapshot).order(
+				ByteOrder.nativeOrder());
+		int count = buffer.getInt();
+		BitSet known = new BitSet();
+		for (int i = 0; i < count; i++) {
+			int friendnumber = buffer.getInt();
+			known.set(friendnumber);
+			ToxUserStatus status = USER_STATUS_VALUES[buffer.get()];
+			boolean online = buffer.get() != 0;
+			int nameLength = buffer.getShort() & 0xffff;
+			int statusMessageLength = buffer.getShort() & 0xffff;
+			byte[] id = new byte[ToxId.PUBLIC_KEY_SIZE];
+			buffer.get(id);
+
+			F friend = this.friendList.addFriendIfNotExists(friendnumber);
+			friend.setId(ToxId.wrap(id).toHexString());
+			friend.setName(ToxCodec.decode(buffer, nameLength));
+			friend.setStatusMessage(ToxCodec.decode(buffer,
+					statusMessageLength));
+			friend.setStatus(status);
+			friend.setOnline(online);
+			updatePresence(friend);
 		}
-		return list;
+		return known;
 	}
 
 	/**
-	 * Native call to tox_get_client_id
+	 * Bring the friend list up to date with the native state, and remove all
+	 * friends the native library does not know. Used to check friend lists
+	 * filled from a {@link FriendCache}.
 	 * 
-	 * @param messengerPointer
-	 *            pointer to the internal messenger struct
-	 * @param friendnumber
-	 *            local number of the friend
-	 * @return the public key of the specified friend
-	 */
-	private native String tox_get_client_id(long messengerPointer,
-			int friendnumber);
-
-	/**
-	 * Get the client id for a given Friend, and update that friends friend ID
-	 * to that value.
-	 * 
-	 * @param friendnumber
-	 *            the friendnumber
 	 * @throws ToxException
-	 *             if the instance has been killed, or an error occurred when
-	 *             attempting to fetch the client id
+	 *             if the instance was killed, or an internal error occured
 	 */
-	private void getClientId(int friendnumber) throws ToxException {
+	void verifyFriendList() throws ToxException {
+		// Holding the lock keeps events from being overwritten by older data
 		this.lock.lock();
-		String result;
 		try {
-			checkPointer();
-
-			result = tox_get_client_id(this.messengerPointer, friendnumber);
+			BitSet known = refreshList();
+			// all() may return the list itself, so remove friends afterwards
+			BitSet unknown = new BitSet();
+			for (F friend : this.friendList.all()) {
+				if (!known.get(friend.getFriendnumber())) {
+					unknown.set(friend.getFriendnumber());
+				}
+			}
+			for (int i = unknown.nextSetBit(0); i >= 0; i = unknown
+					.nextSetBit(i + 1)) {
+				this.friendList.removeFriend(i);
+				FriendPresence<F> presence = this.presence;
+				if (presence != null) {
+					presence.remove(i);
+				}
+			}
 		} finally {
 			this.lock.unlock();
 		}
-
-		if (result == null || result.equals("")) {
-			throw new ToxException(ToxError.TOX_UNKNOWN);
-		}
-		this.friendList.getByFriendNumber(friendnumber).setId(result);
 	}
 
+	/**
+	 * Native call fetching number, client id, name, status message, user
+	 * status and connection status of all friends at once
+	 * 
+	 * @param messengerPointer
+	 *            pointer to the internal messenger struct
+	 * @return the packed friend records, or null on failure
+	 */
+	private native byte[] tox_get_friend_snapshot(long messengerPointer);
+
 	/**
 	 * Native call to tox_get_friend_connection_status
 	 * 
@@ -1010,204 +1914,247 @@ public class JTox<F extends ToxFriend> {
 	}
 
 	/**
-	 * Checks if there exists a friend with given friendnumber.
-	 * 
-	 * @param friendnumber
-	 *            the friendnumber
-	 * @throws ToxException
-	 *             if the instance has been killed, or an error occurred when
-	 *             attempting to fetch the connection status
-	 */
-	private native boolean tox_get_friend_exists(long messengerPointer,
-			int friendnumber);
+	 * Hook for the native API. Invoked once at the end of every tox_do (or
+	 * earlier, if a large number of events piled up) with all events collected
+	 * in the meantime. Updates the friend list and dispatches every event to
+	 * the {@link CallbackHandler}.
+	 * 
+	 * @param events
+	 *            packed events, pointing directly at native memory. Only valid
+	 *            for the duration of this call
+	 * @param count
+	 *            number of events in the buffer
+	 */
+	@SuppressWarnings("unused")
+	private void onEvents(ByteBuffer events, int count) {
+		this.activity += count;
+		events.order(ByteOrder.nativeOrder());
+		for (int i = 0; i < count; i++) {
+			int type = events.get();
+			int friendnumber = events.getInt();
+			int value = events.getInt();
+			int length = events.getInt();
+
+			switch (type) {
+			case EVENT_FRIEND_REQUEST:
+				byte[] publicKey = new byte[ToxId.PUBLIC_KEY_SIZE];
+				events.get(publicKey);
+				this.dispatcher.onFriendRequest(ToxId.wrap(publicKey),
+						readString(events, length - ToxId.PUBLIC_KEY_SIZE));
+				break;
+			case EVENT_MESSAGE:
+				this.dispatcher.onMessage(friendnumber,
+						readString(events, length));
+				break;
+			case EVENT_ACTION:
+				this.dispatcher.onAction(friendnumber,
+						readString(events, length));
+				break;
+			case EVENT_NAME_CHANGE:
+				String newname = readString(events, length);
+				onNameChange(friendnumber, newname);
+				this.dispatcher.onNameChange(friendnumber, newname);
+				break;
+			case EVENT_STATUS_MESSAGE:
+				String newMessage = readString(events, length);
+				onStatusMessage(friendnumber, newMessage);
+				this.dispatcher.onStatusMessage(friendnumber, newMessage);
+				break;
+			case EVENT_USER_STATUS:
+				ToxUserStatus newStatus = value >= 0
+						&& value < USER_STATUS_VALUES.length ? USER_STATUS_VALUES[value]
+						: ToxUserStatus.TOX_USERSTATUS_INVALID;
+				onUserStatus(friendnumber, newStatus);
+				this.dispatcher.onUserStatus(friendnumber, newStatus);
+				break;
+			case EVENT_READ_RECEIPT:
+				this.receipts.complete(friendnumber, value);
+				this.dispatcher.onReadReceipt(friendnumber, value);
+				break;
+			case EVENT_CONNECTION_STATUS:
+				onConnectionStatus(friendnumber, value != 0);
+				this.dispatcher.onConnectionStatus(friendnumber, value != 0);
+				break;
+			default:
+				events.position(events.position() + length);
+				break;
+			}
+		}
+	}
 
 	/**
-	 * Checks if there exists a friend with given friendnumber.
+	 * Read a UTF-8 encoded String from the event buffer
 	 * 
-	 * @param friendnumber
-	 *            the friendnumber
+	 * @param events
+	 *            the event buffer
+	 * @param length
+	 *            length of the String in bytes
+	 * @return the decoded String
 	 */
-	private boolean getToxFriendExists(int friendnumber) throws ToxException {
-		this.lock.lock();
-		boolean result;
-		try {
-			checkPointer();
-			result = tox_get_friend_exists(this.messengerPointer, friendnumber);
-		} finally {
-			this.lock.unlock();
-		}
-		return result;
+	private String readString(ByteBuffer events, int length) {
+		return ToxCodec.decode(events, length);
 	}
 
 	/**
-	 * Native call to tox_get_name
+	 * Update the connection status if a connection status event is received
 	 * 
-	 * @param messengerPointer
-	 *            pointer to the internal messenger struct
 	 * @param friendnumber
-	 *            the friend's number
-	 * @return the specified friend's name
+	 *            friend's number
+	 * @param status
+	 *            new status (true if online, false if offline)
 	 */
-	private native byte[] tox_get_name(long messengerPointer, int friendnumber);
+	private void onConnectionStatus(int friendnumber, boolean status) {
+		F friend = getEventFriend(friendnumber);
+		friend.setOnline(status);
+		updatePresence(friend);
+	}
 
 	/**
-	 * Get the specified friend's name
+	 * Update the name if a name change event is received
 	 * 
 	 * @param friendnumber
-	 *            the friend's number
-	 * @throws ToxException
-	 *             if the instance has been killed or an error occurred
+	 *            friend's number
+	 * @param newname
+	 *            new name
 	 */
-	private void getName(int friendnumber) throws ToxException {
-		this.lock.lock();
-		byte[] name;
-		try {
-			checkPointer();
-
-			name = tox_get_name(this.messengerPointer, friendnumber);
-		} finally {
-			this.lock.unlock();
-		}
-
-		if (name == null) {
-			throw new ToxException(ToxError.TOX_UNKNOWN);
-		}
-		this.friendList.getByFriendNumber(friendnumber).setName(
-				getByteString(name));
+	private void onNameChange(int friendnumber, String newname) {
+		getEventFriend(friendnumber).setName(newname);
 	}
 
 	/**
-	 * Native call to tox_get_status_message
+	 * Update the status message if a status message event is received
 	 * 
-	 * @param messengerPointer
-	 *            pointer to the internal messenger struct
 	 * @param friendnumber
-	 *            the friend's number
-	 * @return the status message
+	 *            the friendnumber
+	 * @param newMessage
+	 *            the new status message
 	 */
-	private native byte[] tox_get_status_message(long messengerPointer,
-			int friendnumber);
+	private void onStatusMessage(int friendnumber, String newMessage) {
+		getEventFriend(friendnumber).setStatusMessage(newMessage);
+	}
 
 	/**
-	 * Get the friend's status message
+	 * Update the user status if a user status event is received
 	 * 
 	 * @param friendnumber
-	 *            the friend's number
-	 * @throws ToxException
-	 *             if the instance has been killed, or an error occurred while
-	 *             getting the status message
+	 *            the friendnumber
+	 * @param newStatus
+	 *            the new status
 	 */
-	private void getStatusMessage(int friendnumber) throws ToxException {
-		this.lock.lock();
-		byte[] status;
-		try {
-			checkPointer();
-
-			status = tox_get_status_message(this.messengerPointer, friendnumber);
-		} finally {
-			this.lock.unlock();
-		}
-
-		if (status == null) {
-			throw new ToxException(ToxError.TOX_UNKNOWN);
-		}
-		this.friendList.getByFriendNumber(friendnumber).setStatusMessage(
-				getByteString(status));
+	private void onUserStatus(int friendnumber, ToxUserStatus newStatus) {
+		F friend = getEventFriend(friendnumber);
+		friend.setStatus(newStatus);
+		updatePresence(friend);
 	}
 
 	/**
-	 * Native call to tox_get_userstatus
+	 * Get the friend an event is about. Friend lists filled from a
+	 * {@link FriendCache} may miss friends until they have been checked
+	 * against the native state, such friends are added right away.
 	 * 
-	 * @param messengerPointer
-	 *            pointer to the internal messenger struct
 	 * @param friendnumber
 	 *            the friend's number
-	 * @return the friend's status
+	 * @return the friend
 	 */
-	private native ToxUserStatus tox_get_user_status(long messengerPointer,
-			int friendnumber);
+	private F getEventFriend(int friendnumber) {
+		return this.friendList.addFriendIfNotExists(friendnumber);
+	}
 
 	/**
-	 * Get the current status for the specified friend
+	 * Copy the friend list for the friend cache. Holding the lock keeps events
+	 * from changing friends while they are copied.
 	 * 
-	 * @param friendnumber
-	 *            the friend's number
-	 * @throws ToxException
-	 *             if the instance has been killed
+	 * @return the copy
 	 */
-	private void getUserStatus(int friendnumber) throws ToxException {
-		ToxUserStatus status = ToxUserStatus.TOX_USERSTATUS_INVALID;
+	FriendCache.Snapshot snapshotFriendList() {
 		this.lock.lock();
 		try {
-			checkPointer();
-
-			status = tox_get_user_status(this.messengerPointer, friendnumber);
+			return new FriendCache.Snapshot(this.friendList);
 		} finally {
 			this.lock.unlock();
 		}
-		this.friendList.getByFriendNumber(friendnumber).setStatus(status);
 	}
 
 	/**
-	 * Update the connection status if a connection status callback is invoked
-	 * 
-	 * @param friendnumber
-	 *            friend's number
-	 * @param status
-	 *            new status (true if online, false if offline)
+	 * Write the friend list to the friend cache this instance was created
+	 * with, if any. Errors are reported by {@link FriendCache#getLastError()}.
 	 */
-	private void onConnectionStatus(int friendnumber, boolean status) {
-		this.friendList.getByFriendNumber(friendnumber).setOnline(status);
+	private void writeFriendCache() {
+		FriendCache cache = this.friendCache;
+		if (cache != null) {
+			cache.writeQuietly(snapshotFriendList());
+		}
 	}
 
 	/**
-	 * Update the name if a connection status callback is invoked
+	 * Move the given friend to the views matching its status, if the views
+	 * have been created
 	 * 
-	 * @param friendnumber
-	 *            friend's number
-	 * @param newname
-	 *            new name
+	 * @param friend
+	 *            the changed friend
 	 */
-	private void onNameChange(int friendnumber, byte[] newname) {
-		this.friendList.getByFriendNumber(friendnumber).setName(
-				getByteString(newname));
+	private void updatePresence(F friend) {
+		FriendPresence<F> presence = this.presence;
+		if (presence != null) {
+			presence.update(friend);
+		}
 	}
 
 	/**
-	 * Update the status message if a status message callback is invoked
+	 * Utility method that checks the current pointer and throws an exception if
+	 * it is not valid
 	 * 
-	 * @param friendnumber
-	 *            the friendnumber
-	 * @param newMessage
-	 *            the new status message
+	 * @throws ToxException
+	 *             if the instance has been killed
 	 */
-	private void onStatusMessage(int friendnumber, byte[] newMessage) {
-		this.friendList.getByFriendNumber(friendnumber).setStatusMessage(
-				getByteString(newMessage));
+	private void checkPointer() throws ToxException {
+		if (this.killed) {
+			throw new ToxException(ToxError.TOX_KILLED_INSTANCE);
+		}
 	}
 
 	/**
-	 * Update the user status if a user status callback is invoked
+	 * Set the autosave this instance is registered with
 	 * 
-	 * @param friendnumber
-	 *            the friendnumber
-	 * @param newStatus
-	 *            the new status
+	 * @param autosave
+	 *            the autosave, or null if it was unregistered
 	 */
-	private void onUserStatus(int friendnumber, ToxUserStatus newStatus) {
-		this.friendList.getByFriendNumber(friendnumber).setStatus(newStatus);
+	void setAutosave(ToxAutosave autosave) {
+		this.autosave = autosave;
 	}
 
 	/**
-	 * Utility method that checks the current pointer and throws an exception if
-	 * it is not valid
-	 * 
-	 * @throws ToxException
-	 *             if the instance has been killed
+	 * Mark this instance as changed, so a registered autosave saves it soon
 	 */
-	private void checkPointer() throws ToxException {
-		if (!validPointers.contains(this.messengerPointer)) {
-			throw new ToxException(ToxError.TOX_KILLED_INSTANCE);
+	private void markDirty() {
+		ToxAutosave autosave = this.autosave;
+		if (autosave != null) {
+			autosave.markDirty(this);
+		}
+	}
+
+	/**
+	 * Utility method that checks whether the given buffer can be passed to one
+	 * of the native calls that read directly from a buffer
+	 * 
+	 * @param buffer
+	 *            the buffer to check
+	 * @param offset
+	 *            index of the first byte to read
+	 * @param length
+	 *            number of bytes to read
+	 * @throws IllegalArgumentException
+	 *             if the buffer is not direct, or the given range is not
+	 *             inside the buffer
+	 */
+	private static void checkDirectBuffer(ByteBuffer buffer, int offset,
+			int length) {
+		if (!buffer.isDirect()) {
+			throw new IllegalArgumentException("Buffer must be direct");
+		}
+		if (offset < 0 || length < 0 || offset > buffer.capacity() - length) {
+			throw new IllegalArgumentException("Range [" + offset + ", "
+					+ (offset + length) + ") is outside of the buffer");
 		}
 	}
 
@@ -1230,6 +2177,33 @@ public class JTox<F extends ToxFriend> {
 		return this.friendList;
 	}
 
+	/**
+	 * Get live views of the online and offline friends of this instance, kept
+	 * up to date as connection and user status events arrive. The views are
+	 * created on the first call, after which the instance updates them along
+	 * with the friend list.
+	 * 
+	 * @return the views
+	 */
+	public FriendPresence<F> getPresence() {
+		FriendPresence<F> presence = this.presence;
+		if (presence == null) {
+			// Holding the lock keeps events from changing friends while the
+			// views are filled
+			this.lock.lock();
+			try {
+				presence = this.presence;
+				if (presence == null) {
+					presence = new FriendPresence<F>(this.friendList);
+					this.presence = presence;
+				}
+			} finally {
+				this.lock.unlock();
+			}
+		}
+		return presence;
+	}
+
 	/**
 	 * Get the instance associated with the specified instance number. This may
 	 * return <code>null</code> if either the instance was killed, or if no
@@ -1243,19 +2217,36 @@ public class JTox<F extends ToxFriend> {
 	}
 
 	/**
-	 * Turns the given String into an array of UTF-8 encoded bytes, also adding
-	 * a nullbyte at the end for convenience
+	 * Encode a String into a pooled direct buffer for one of the ByteBuffer
+	 * based native calls
+	 * 
+	 * @param in
+	 *            the String to encode
+	 * @param buffer
+	 *            a cleared buffer from {@link #textBuffers}
+	 * @return the number of encoded bytes, starting at index 0
+	 * @throws ToxException
+	 *             if the encoded String does not fit into the buffer
+	 */
+	private static int encodeText(String in, ByteBuffer buffer)
+			throws ToxException {
+		int length = ToxCodec.encode(in, buffer);
+		if (length < 0) {
+			throw new ToxException(ToxError.TOX_TOOLONG);
+		}
+		return length;
+	}
+
+	/**
+	 * Turns the given String into an array of UTF-8 encoded bytes
 	 * 
 	 * @param in
 	 *            the String to convert
 	 * @return a byte array
+	 * @see ToxCodec#encode(String)
 	 */
 	public static byte[] getStringBytes(String in) {
-		try {
-			return in.getBytes("UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new InternalError("UTF-8 support is needed to continue.");
-		}
+		return ToxCodec.encode(in);
 	}
 
 	/**
@@ -1266,11 +2257,23 @@ public class JTox<F extends ToxFriend> {
 	 * @return an UTF-8 String based on the given byte array
 	 */
 	public static String getByteString(byte[] in) {
-		try {
-			return new String(in, "UTF-8");
-		} catch (UnsupportedEncodingException e) {
-			throw new InternalError("UTF-8 support is needed to continue.");
-		}
+		return getByteString(in, 0, in.length);
+	}
+
+	/**
+	 * Turns the given range of a byte array into a UTF-8 encoded string
+	 * 
+	 * @param in
+	 *            the byte array to convert
+	 * @param offset
+	 *            index of the first byte to convert
+	 * @param length
+	 *            number of bytes to convert
+	 * @return an UTF-8 String based on the given range of the byte array
+	 * @see ToxCodec#decode(byte[], int, int)
+	 */
+	public static String getByteString(byte[] in, int offset, int length) {
+		return ToxCodec.decode(in, offset, length);
 	}
 
 	/**
@@ -0,0 +1,213 @@
+/* NameIndex.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trigram index for substring searches on case-folded names. For every
+ * sequence of three characters, the index keeps the set of friend numbers
+ * whose name contains it. A name containing a query contains all of the
+ * query's trigrams, so intersecting their sets yields a small candidate set
+ * that only needs to be verified, instead of scanning every name.
+ * <p/>
+ * Queries shorter than three characters can not be answered by the index.
+ * <p/>
+ * This class is not thread safe, {@link DefaultFriendList} only uses it while
+ * holding its lock.
+ */
+final class NameIndex {
+
+	/**
+	 * Number of characters per indexed sequence
+	 */
+	static final int GRAM = 3;
+
+	/**
+	 * Open addressing hash set of non-negative ints, using linear probing and
+	 * backward shift deletion. A slot is free if it holds -1.
+	 */
+	static final class IntSet {
+		private int[] slots = newSlots(4);
+		private int size;
+
+		private static int[] newSlots(int capacity) {
+			int[] slots = new int[capacity];
+			Arrays.fill(slots, -1);
+			return slots;
+		}
+
+		void add(int value) {
+			if (2 * (this.size + 1) > this.slots.length) {
+				int[] old = this.slots;
+				this.slots = newSlots(old.length * 2);
+				this.size = 0;
+				for (int v : old) {
+					if (v >= 0) {
+						add(v);
+					}
+				}
+			}
+			int mask = this.slots.length - 1;
+			int i = mix(value) & mask;
+			while (this.slots[i] >= 0) {
+				if (this.slots[i] == value) {
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+			this.slots[i] = value;
+			this.size++;
+		}
+
+		boolean contains(int value) {
+			int mask = this.slots.length - 1;
+			int i = mix(value) & mask;
+			while (this.slots[i] >= 0) {
+				if (this.slots[i] == value) {
+					return true;
+				}
+				i = (i + 1) & mask;
+			}
+			return false;
+		}
+
+		void remove(int value) {
+			int mask = this.slots.length - 1;
+			int i = mix(value) & mask;
+			while (this.slots[i] >= 0) {
+				if (this.slots[i] == value) {
+					shiftBack(i, mask);
+					this.size--;
+					return;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+
+		private void shiftBack(int free, int mask) {
+			int i = free;
+			while (true) {
+				i = (i + 1) & mask;
+				int value = this.slots[i];
+				if (value < 0) {
+					break;
+				}
+				int home = mix(value) & mask;
+				if (((i - home) & mask) >= ((i - free) & mask)) {
+					this.slots[free] = value;
+					free = i;
+				}
+			}
+			this.slots[free] = -1;
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		/**
+		 * @return the slots, free slots hold -1. Must not be modified.
+		 */
+		int[] slots() {
+			return this.slots;
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	private final Map<Long, IntSet> postings = new HashMap<Long, IntSet>();
+
+	/**
+	 * Index a name
+	 * 
+	 * @param friendnumber
+	 *            the friend with the name
+	 * @param folded
+	 *            the case-folded name
+	 */
+	void add(int friendnumber, String folded) {
+		for (int i = 0; i + GRAM <= folded.length(); i++) {
+			Long key = key(folded, i);
+			IntSet set = this.postings.get(key);
+			if (set == null) {
+				set = new IntSet();
+				this.postings.put(key, set);
+			}
+			set.add(friendnumber);
+		}
+	}
+
+	/**
+	 * Remove a name added with {@link #add(int, String)}
+	 */
+	void remove(int friendnumber, String folded) {
+		for (int i = 0; i + GRAM <= folded.length(); i++) {
+			Long key = key(folded, i);
+			IntSet set = this.postings.get(key);
+			if (set != null) {
+				set.remove(friendnumber);
+				if (set.size() == 0) {
+					this.postings.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the sets of friends containing each trigram of a query
+	 * 
+	 * @param folded
+	 *            the case-folded query, at least {@link #GRAM} characters
+	 * @return the sets, smallest first, or null if no name contains one of the
+	 *         trigrams
+	 */
+	IntSet[] lookup(String folded) {
+		IntSet[] sets = new IntSet[folded.length() - GRAM + 1];
+		for (int i = 0; i < sets.length; i++) {
+			sets[i] = this.postings.get(key(folded, i));
+			if (sets[i] == null) {
+				return null;
+			}
+		}
+		// Sort by size, there are only a few
+		for (int i = 1; i < sets.length; i++) {
+			IntSet set = sets[i];
+			int j = i;
+			while (j > 0 && sets[j - 1].size() > set.size()) {
+				sets[j] = sets[j - 1];
+				j--;
+			}
+			sets[j] = set;
+		}
+		return sets;
+	}
+
+	private static Long key(String s, int i) {
+		return Long.valueOf(((long) s.charAt(i) << 32)
+				| ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2));
+	}
+}
@@ -0,0 +1,286 @@
+/* PendingReceipts.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Receipt futures waiting for their read receipts. Each friend gets an open
+ * addressing hash table keyed by the primitive message ID, so neither lookups
+ * nor insertions box anything. Futures are also kept in a queue in the order
+ * they were added, which is the order of their deadlines as long as the
+ * timeout does not change, so expiring them only ever looks at the head of
+ * the queue.
+ * <p/>
+ * This class is not thread safe, {@link JTox} only uses it while holding its
+ * lock.
+ */
+final class PendingReceipts {
+
+	private static final int INITIAL_TABLE_SIZE = 8;
+
+	/**
+	 * Open addressing table of a single friend, using linear probing and
+	 * backward shift deletion. A slot is free if its value is null.
+	 */
+	private static final class Table {
+		int[] keys = new int[INITIAL_TABLE_SIZE];
+		ToxReceiptFuture[] values = new ToxReceiptFuture[INITIAL_TABLE_SIZE];
+		int size;
+
+		ToxReceiptFuture put(int key, ToxReceiptFuture value) {
+			if (2 * (this.size + 1) > this.keys.length) {
+				resize(this.keys.length * 2);
+			}
+			int mask = this.keys.length - 1;
+			int i = mix(key) & mask;
+			while (this.values[i] != null) {
+				if (this.keys[i] == key) {
+					ToxReceiptFuture old = this.values[i];
+					this.values[i] = value;
+					return old;
+				}
+				i = (i + 1) & mask;
+			}
+			this.keys[i] = key;
+			this.values[i] = value;
+			this.size++;
+			return null;
+		}
+
+		ToxReceiptFuture get(int key) {
+			int mask = this.keys.length - 1;
+			int i = mix(key) & mask;
+			while (this.values[i] != null) {
+				if (this.keys[i] == key) {
+					return this.values[i];
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		ToxReceiptFuture remove(int key) {
+			int mask = this.keys.length - 1;
+			int i = mix(key) & mask;
+			while (this.values[i] != null) {
+				if (this.keys[i] == key) {
+					ToxReceiptFuture old = this.values[i];
+					shiftBack(i, mask);
+					this.size--;
+					return old;
+				}
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		/**
+		 * Remove the entry at the given slot by moving later entries of the
+		 * same probe sequence back, so no tombstones are needed
+		 */
+		private void shiftBack(int free, int mask) {
+			int i = free;
+			while (true) {
+				i = (i + 1) & mask;
+				ToxReceiptFuture value = this.values[i];
+				if (value == null) {
+					break;
+				}
+				int home = mix(this.keys[i]) & mask;
+				// Move the entry if its home slot is not between the free slot
+				// and its current slot
+				if (((i - home) & mask) >= ((i - free) & mask)) {
+					this.keys[free] = this.keys[i];
+					this.values[free] = value;
+					free = i;
+				}
+			}
+			this.values[free] = null;
+		}
+
+		private void resize(int capacity) {
+			int[] oldKeys = this.keys;
+			ToxReceiptFuture[] oldValues = this.values;
+			this.keys = new int[capacity];
+			this.values = new ToxReceiptFuture[capacity];
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldValues[i] != null) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	private Table[] tables = new Table[0];
+	private final ArrayDeque<ToxReceiptFuture> expiry = new ArrayDeque<ToxReceiptFuture>();
+	private int size;
+
+	/**
+	 * Start waiting for the receipt of the given future. A future still
+	 * waiting for the same message ID of the same friend is cancelled.
+	 */
+	void add(ToxReceiptFuture future) {
+		int friendnumber = future.getFriendnumber();
+		if (friendnumber >= this.tables.length) {
+			this.tables = Arrays.copyOf(this.tables,
+					Math.max(friendnumber + 1, this.tables.length * 2));
+		}
+		Table table = this.tables[friendnumber];
+		if (table == null) {
+			table = new Table();
+			this.tables[friendnumber] = table;
+		}
+		ToxReceiptFuture old = table.put(future.getMessageId(), future);
+		if (old != null) {
+			old.cancel(false);
+		} else {
+			this.size++;
+		}
+
+		// Futures completed by receipts stay in the queue until they expire,
+		// drop them once they make up most of it
+		if (this.expiry.size() > 2 * this.size + 64) {
+			Iterator<ToxReceiptFuture> it = this.expiry.iterator();
+			while (it.hasNext()) {
+				ToxReceiptFuture queued = it.next();
+				if (queued.isDone()) {
+					it.remove();
+					removeIfSame(queued);
+				}
+			}
+		}
+		this.expiry.add(future);
+	}
+
+	/**
+	 * Complete the future waiting for the given receipt, if any
+	 */
+	void complete(int friendnumber, int receipt) {
+		ToxReceiptFuture future = remove(friendnumber, receipt);
+		if (future != null) {
+			future.complete();
+		}
+	}
+
+	/**
+	 * Fail all futures whose deadline has passed with a TimeoutException
+	 *
+	 * @param now
+	 *            the current {@link System#nanoTime()}
+	 */
+	void expire(long now) {
+		ToxReceiptFuture future;
+		while ((future = this.expiry.peek()) != null
+				&& now - future.deadline >= 0) {
+			this.expiry.poll();
+			removeIfSame(future);
+			if (!future.isDone()) {
+				future.fail(new TimeoutException("No read receipt for message "
+						+ future.getMessageId() + " to friend "
+						+ future.getFriendnumber()));
+			}
+		}
+	}
+
+	/**
+	 * Cancel all futures waiting for receipts from the given friend
+	 */
+	void cancelFriend(int friendnumber) {
+		if (friendnumber >= this.tables.length
+				|| this.tables[friendnumber] == null) {
+			return;
+		}
+		Table table = this.tables[friendnumber];
+		this.tables[friendnumber] = null;
+		this.size -= table.size;
+		for (ToxReceiptFuture future : table.values) {
+			if (future != null) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * Fail all pending futures with the given cause
+	 */
+	void failAll(Throwable cause) {
+		Table[] all = this.tables;
+		this.tables = new Table[0];
+		this.expiry.clear();
+		this.size = 0;
+		for (Table table : all) {
+			if (table != null) {
+				for (ToxReceiptFuture future : table.values) {
+					if (future != null) {
+						future.fail(cause);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of futures waiting for their receipts
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Remove the given future from its friend's table, unless the table holds
+	 * a different future for the same message ID by now
+	 */
+	private void removeIfSame(ToxReceiptFuture future) {
+		int friendnumber = future.getFriendnumber();
+		if (friendnumber < this.tables.length) {
+			Table table = this.tables[friendnumber];
+			if (table != null && table.get(future.getMessageId()) == future) {
+				table.remove(future.getMessageId());
+				this.size--;
+			}
+		}
+	}
+
+	private ToxReceiptFuture remove(int friendnumber, int receipt) {
+		if (friendnumber < 0 || friendnumber >= this.tables.length) {
+			return null;
+		}
+		Table table = this.tables[friendnumber];
+		if (table == null) {
+			return null;
+		}
+		ToxReceiptFuture future = table.remove(receipt);
+		if (future != null) {
+			this.size--;
+		}
+		return future;
+	}
+}
@@ -0,0 +1,117 @@
+/* SaveFiles.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Utility methods for reading and writing save files through FileChannels and
+ * direct buffers, so the data never has to be copied onto the Java heap.
+ */
+final class SaveFiles {
+
+	private SaveFiles() {
+	}
+
+	/**
+	 * Read a whole file into a new direct buffer
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return a flipped direct buffer holding the contents of the file
+	 * @throws IOException
+	 *             if the file could not be read, or is larger than 2 GiB
+	 */
+	static ByteBuffer read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + file);
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("File truncated while reading: "
+							+ file);
+				}
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Atomically replace the contents of a file with the remaining bytes of a
+	 * buffer. The data is written to a temporary file in the same directory,
+	 * synced to disk and then renamed over the target, so readers see either
+	 * the old or the new contents, never a partially written file. On
+	 * platforms where renaming cannot replace an existing file, the old file
+	 * is deleted first.
+	 *
+	 * @param file
+	 *            the file to write
+	 * @param data
+	 *            the data to write. The buffer's position is advanced to its
+	 *            limit.
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	static void write(File file, ByteBuffer data) throws IOException {
+		File target = file.getAbsoluteFile();
+		File temp = File.createTempFile("." + target.getName() + ".", ".tmp",
+				target.getParentFile());
+		boolean success = false;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				FileChannel channel = out.getChannel();
+				while (data.hasRemaining()) {
+					channel.write(data);
+				}
+				channel.force(true);
+			} finally {
+				out.close();
+			}
+
+			if (!temp.renameTo(target)) {
+				if (!target.delete() || !temp.renameTo(target)) {
+					throw new IOException("Could not rename " + temp + " to "
+							+ target);
+				}
+			}
+			success = true;
+		} finally {
+			if (!success) {
+				temp.delete();
+			}
+		}
+	}
+}
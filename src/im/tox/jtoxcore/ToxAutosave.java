@@ -0,0 +1,318 @@
+/* ToxAutosave.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically saves the data of one or more JTox instances to files.
+ * <p/>
+ * All saving happens on a single background daemon thread, never on the thread
+ * running {@link JTox#doTox()}. The instance lock is only held while the
+ * native library writes the data into a reusable direct buffer; the file is
+ * written afterwards, atomically, see {@link JTox#save(File)}. A save is
+ * skipped if the data has the same checksum as the last data written.
+ * <p/>
+ * Besides the regular interval, an instance is saved shortly after it was
+ * changed through {@link JTox#addFriend(ToxId, String)},
+ * {@link JTox#confirmRequest(ToxId)}, {@link JTox#deleteFriend(int)},
+ * {@link JTox#setName(String)} or {@link JTox#setStatusMessage(String)}.
+ * Changes that arrive from the network, like friends changing their names, are
+ * picked up at the next interval.
+ * <p/>
+ * Instances that have been killed are unregistered automatically. Call
+ * {@link #flush()} before killing an instance to make sure its last changes
+ * are saved.
+ */
+public class ToxAutosave {
+
+	/**
+	 * Default time between two saves of the same instance in milliseconds
+	 */
+	public static final long DEFAULT_INTERVAL = 60000;
+
+	/**
+	 * Default time between a change to an instance and the save it triggers in
+	 * milliseconds. Changes made during this time are saved together.
+	 */
+	public static final long DEFAULT_CHANGE_DELAY = 1000;
+
+	private final ScheduledExecutorService executor;
+	private final long changeDelay;
+	private final ConcurrentMap<JTox<?>, Entry> entries = new ConcurrentHashMap<JTox<?>, Entry>();
+	private volatile IOException lastError;
+
+	/**
+	 * Registration of a single instance. Apart from the scheduled flag, only
+	 * accessed on the executor thread.
+	 */
+	private final class Entry implements Runnable {
+		final JTox<?> tox;
+		final File file;
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		ByteBuffer buffer;
+		boolean written;
+		int size;
+		long checksum;
+
+		Entry(JTox<?> tox, File file) {
+			this.tox = tox;
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			this.scheduled.set(false);
+			save(this);
+		}
+	}
+
+	/**
+	 * Creates a new autosave scheduler with the default interval and change
+	 * delay
+	 */
+	public ToxAutosave() {
+		this(DEFAULT_INTERVAL, DEFAULT_CHANGE_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a new autosave scheduler
+	 *
+	 * @param interval
+	 *            time between two saves of the same instance
+	 * @param changeDelay
+	 *            time between a change to an instance and the save it triggers
+	 * @param unit
+	 *            unit of interval and changeDelay
+	 */
+	public ToxAutosave(long interval, long changeDelay, TimeUnit unit) {
+		if (interval <= 0 || changeDelay < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.changeDelay = unit.toMillis(changeDelay);
+		this.executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ToxAutosave");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				saveAll();
+			}
+		}, interval, interval, unit);
+	}
+
+	/**
+	 * Start saving the given instance to the given file. If the instance is
+	 * already registered, its file is replaced. An instance can only be
+	 * registered with one ToxAutosave at a time.
+	 *
+	 * @param tox
+	 *            the instance to save
+	 * @param file
+	 *            the file to save to
+	 */
+	public void register(JTox<?> tox, File file) {
+		this.entries.put(tox, new Entry(tox, file));
+		tox.setAutosave(this);
+	}
+
+	/**
+	 * Stop saving the given instance. Changes made since the last save are not
+	 * saved.
+	 *
+	 * @param tox
+	 *            the instance
+	 */
+	public void unregister(JTox<?> tox) {
+		if (this.entries.remove(tox) != null) {
+			tox.setAutosave(null);
+		}
+	}
+
+	/**
+	 * Save all registered instances whose data changed since their last save,
+	 * and wait until that is done.
+	 *
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	public void flush() throws InterruptedException {
+		try {
+			this.executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					saveAll();
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (RejectedExecutionException e) {
+			// Already shut down, the final save has been made
+		}
+	}
+
+	/**
+	 * Save all registered instances one last time, then stop the background
+	 * thread. Does not wait for the final save to finish.
+	 */
+	public void shutdown() {
+		try {
+			this.executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					saveAll();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			return;
+		}
+		this.executor.shutdown();
+	}
+
+	/**
+	 * @return the error of the last save that could not be written, or null if
+	 *         no save has failed yet. Failed saves are retried at the next
+	 *         interval.
+	 */
+	public IOException getLastError() {
+		return this.lastError;
+	}
+
+	/**
+	 * Called by {@link JTox} whenever a registered instance was changed
+	 *
+	 * @param tox
+	 *            the changed instance
+	 */
+	void markDirty(JTox<?> tox) {
+		Entry entry = this.entries.get(tox);
+		if (entry != null && entry.scheduled.compareAndSet(false, true)) {
+			try {
+				this.executor.schedule(entry, this.changeDelay,
+						TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// Shutting down, the final save takes care of this change
+			}
+		}
+	}
+
+	private void saveAll() {
+		for (Entry entry : this.entries.values()) {
+			save(entry);
+		}
+	}
+
+	private void save(Entry entry) {
+		if (this.entries.get(entry.tox) != entry) {
+			return;
+		}
+
+		ByteBuffer buffer;
+		try {
+			buffer = snapshot(entry);
+		} catch (ToxException e) {
+			unregister(entry.tox);
+			return;
+		}
+
+		try {
+			if (!entry.written && entry.file.exists()) {
+				ByteBuffer existing = SaveFiles.read(entry.file);
+				entry.size = existing.remaining();
+				entry.checksum = checksum(existing);
+				entry.written = true;
+			}
+		} catch (IOException e) {
+			// Unreadable, so it gets overwritten
+		}
+
+		int size = buffer.remaining();
+		long checksum = checksum(buffer);
+		if (entry.written && entry.size == size && entry.checksum == checksum) {
+			return;
+		}
+
+		try {
+			SaveFiles.write(entry.file, buffer);
+			entry.written = true;
+			entry.size = size;
+			entry.checksum = checksum;
+		} catch (IOException e) {
+			this.lastError = e;
+		}
+	}
+
+	/**
+	 * Save the instance's data into the entry's buffer, growing it as needed
+	 *
+	 * @return the flipped buffer
+	 * @throws ToxException
+	 *             if the instance has been killed
+	 */
+	private static ByteBuffer snapshot(Entry entry) throws ToxException {
+		while (true) {
+			int size = entry.tox.getSaveSize();
+			if (entry.buffer == null || entry.buffer.capacity() < size) {
+				entry.buffer = ByteBuffer.allocateDirect(size + size / 2);
+			}
+			entry.buffer.clear();
+			try {
+				entry.tox.save(entry.buffer);
+			} catch (BufferOverflowException e) {
+				// The data grew since we asked for its size
+				continue;
+			}
+			entry.buffer.flip();
+			return entry.buffer;
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the remaining bytes of a buffer. Does not change
+	 * the buffer's position.
+	 */
+	private static long checksum(ByteBuffer buffer) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			hash ^= buffer.get(i) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,119 @@
+/* ToxBufferPool.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of direct ByteBuffers for use with the ByteBuffer variants of
+ * {@link JTox#sendMessage(ToxFriend, ByteBuffer, int, int)} and friends.
+ * Buffers are handed out with {@link #acquire()} and returned with
+ * {@link #release(ByteBuffer)}. Once the pool has warmed up, acquiring and
+ * releasing buffers does not allocate.
+ * <p/>
+ * This class is thread safe.
+ */
+public class ToxBufferPool {
+
+	/**
+	 * Default size of the pooled buffers in bytes. This is large enough for
+	 * any message, name or status message.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1536;
+
+	/**
+	 * Default number of idle buffers kept by the pool
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	private final int bufferSize;
+	private final ByteBuffer[] buffers;
+	private int count;
+
+	/**
+	 * Creates a new pool with the default buffer size and capacity
+	 */
+	public ToxBufferPool() {
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new pool
+	 *
+	 * @param bufferSize
+	 *            the size of each buffer in bytes
+	 * @param capacity
+	 *            the maximum number of idle buffers kept by the pool. Buffers
+	 *            released while the pool is full are left to the garbage
+	 *            collector.
+	 */
+	public ToxBufferPool(int bufferSize, int capacity) {
+		if (bufferSize <= 0 || capacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.bufferSize = bufferSize;
+		this.buffers = new ByteBuffer[capacity];
+	}
+
+	/**
+	 * Get a cleared direct buffer from the pool, or allocate a new one if the
+	 * pool is empty
+	 *
+	 * @return a direct buffer with a capacity of {@link #getBufferSize()}
+	 */
+	public ByteBuffer acquire() {
+		synchronized (this.buffers) {
+			if (this.count > 0) {
+				ByteBuffer buffer = this.buffers[--this.count];
+				this.buffers[this.count] = null;
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocateDirect(this.bufferSize);
+	}
+
+	/**
+	 * Return a buffer to the pool. The buffer must not be used by the caller
+	 * afterwards.
+	 *
+	 * @param buffer
+	 *            a buffer obtained from {@link #acquire()}
+	 */
+	public void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.capacity() != this.bufferSize) {
+			throw new IllegalArgumentException(
+					"Buffer does not belong to this pool");
+		}
+		buffer.clear();
+		synchronized (this.buffers) {
+			if (this.count < this.buffers.length) {
+				this.buffers[this.count++] = buffer;
+			}
+		}
+	}
+
+	/**
+	 * @return the size of the buffers in this pool in bytes
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+}
@@ -0,0 +1,122 @@
+/* ToxCodec.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Standard UTF-8 codec for names, status messages, messages and actions passed
+ * to and from the native library. Unlike the JNI string functions, which use
+ * modified UTF-8, this handles characters outside the basic multilingual plane
+ * correctly.
+ * <p/>
+ * The conversion itself is left to {@link String#getBytes(Charset)} and
+ * {@link String#String(byte[], int, int, Charset)}, which the JVM optimizes
+ * far better than a CharsetEncoder or CharsetDecoder driven from Java code.
+ * Malformed input is replaced the same way they replace it.
+ * <p/>
+ * This class is thread safe.
+ */
+public final class ToxCodec {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ToxCodec() {
+	}
+
+	/**
+	 * Encode the given String as UTF-8
+	 *
+	 * @param in
+	 *            the String to encode
+	 * @return a new array holding exactly the encoded bytes
+	 */
+	public static byte[] encode(String in) {
+		return in.getBytes(UTF8);
+	}
+
+	/**
+	 * Encode the given String as UTF-8 into a buffer, starting at the buffer's
+	 * current position. On success, the position is advanced past the encoded
+	 * bytes. If the encoded String does not fit into the remaining space, the
+	 * buffer is left unchanged. Works with both heap and direct buffers.
+	 *
+	 * @param in
+	 *            the String to encode
+	 * @param out
+	 *            the buffer to write to
+	 * @return the number of bytes written, or -1 if the encoded String did not
+	 *         fit into the buffer
+	 */
+	public static int encode(String in, ByteBuffer out) {
+		byte[] bytes = in.getBytes(UTF8);
+		if (out.remaining() < bytes.length) {
+			return -1;
+		}
+		out.put(bytes);
+		return bytes.length;
+	}
+
+	/**
+	 * Decode a range of UTF-8 encoded bytes
+	 *
+	 * @param in
+	 *            the array holding the bytes
+	 * @param offset
+	 *            index of the first byte to decode
+	 * @param length
+	 *            number of bytes to decode
+	 * @return the decoded String
+	 */
+	public static String decode(byte[] in, int offset, int length) {
+		return new String(in, offset, length, UTF8);
+	}
+
+	/**
+	 * Decode UTF-8 encoded bytes from a buffer, starting at the buffer's
+	 * current position. The position is advanced past the decoded bytes. Works
+	 * with both heap and direct buffers.
+	 *
+	 * @param in
+	 *            the buffer to read from
+	 * @param length
+	 *            number of bytes to decode
+	 * @return the decoded String
+	 * @throws BufferUnderflowException
+	 *             if fewer than length bytes remain in the buffer
+	 */
+	public static String decode(ByteBuffer in, int length) {
+		if (in.remaining() < length) {
+			throw new BufferUnderflowException();
+		}
+		int start = in.position();
+		if (in.hasArray()) {
+			in.position(start + length);
+			return new String(in.array(), in.arrayOffset() + start, length,
+					UTF8);
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, 0, length, UTF8);
+	}
+}
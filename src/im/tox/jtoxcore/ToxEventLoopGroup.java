@@ -0,0 +1,583 @@
+/* ToxEventLoopGroup.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives many JTox instances with a fixed number of threads, instead of one
+ * {@link ToxWorker} thread per instance.
+ * <p/>
+ * Each instance is assigned to one of the loops of the group. A loop keeps its
+ * instances ordered by the time their next call to {@link JTox#doTox()} is
+ * due, and sleeps until the earliest one. The interval of each instance adapts
+ * to its traffic the same way it does in a {@link ToxWorker}, and enqueued
+ * commands wake the loop of their instance right away.
+ * <p/>
+ * Every loop measures the share of its time spent in doTox, see
+ * {@link #getUtilization(int)}. Once per measuring window, if the utilization
+ * of the busiest and the idlest loop differ too much, one instance is moved
+ * from the busiest loop to the idlest.
+ * <p/>
+ * Callbacks of all instances of a loop run on the loop's thread, so a slow
+ * callback delays the other instances of that loop. A RuntimeException thrown
+ * by a callback is passed to the handler set with
+ * {@link #setUncaughtExceptionHandler(Thread.UncaughtExceptionHandler)}, and
+ * the instance stays registered. Instances that have been killed are
+ * unregistered automatically. An instance must not be driven by a
+ * ToxEventLoopGroup and a ToxWorker at the same time.
+ */
+public class ToxEventLoopGroup {
+
+	/**
+	 * Length of the window over which utilization is measured, in nanoseconds
+	 */
+	private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Minimum difference in utilization between the busiest and the idlest
+	 * loop before an instance is moved
+	 */
+	private static final double REBALANCE_THRESHOLD = 0.2;
+
+	private final Loop[] loops;
+	private final long busyInterval;
+	private final long idleInterval;
+	private final ConcurrentMap<JTox<?>, Registration> registrations = new ConcurrentHashMap<JTox<?>, Registration>();
+	private volatile boolean shutdown;
+
+	/**
+	 * Registration of a single instance. Apart from the volatile and atomic
+	 * fields, only accessed by the thread of the loop it is assigned to.
+	 */
+	private final class Registration implements Runnable {
+		final JTox<?> tox;
+		final AtomicBoolean woken = new AtomicBoolean();
+		volatile Loop loop;
+		volatile boolean removed;
+
+		/**
+		 * Time spent in doTox during the last complete window, in nanoseconds
+		 */
+		volatile long cost;
+
+		long windowBusy;
+		long deadline;
+		long interval;
+
+		/**
+		 * Position in the heap of the loop, or -1 if in no heap
+		 */
+		int index = -1;
+
+		/**
+		 * Loop whose heap holds this registration
+		 */
+		Loop heapLoop;
+
+		Registration(JTox<?> tox, Loop loop) {
+			this.tox = tox;
+			this.loop = loop;
+			this.interval = ToxEventLoopGroup.this.busyInterval;
+		}
+
+		/**
+		 * Wakeup hook of the instance
+		 */
+		@Override
+		public void run() {
+			if (!this.removed && this.woken.compareAndSet(false, true)) {
+				final Loop loop = this.loop;
+				loop.execute(new Runnable() {
+					@Override
+					public void run() {
+						Registration.this.woken.set(false);
+						if (Registration.this.heapLoop == loop) {
+							loop.reschedule(Registration.this, System.nanoTime());
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * A single loop thread and its instances
+	 */
+	private final class Loop extends Thread {
+		final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		final AtomicInteger assigned = new AtomicInteger();
+		volatile double utilization;
+
+		/**
+		 * Binary min-heap of the registrations, ordered by deadline
+		 */
+		Registration[] heap = new Registration[16];
+		int size;
+
+		long windowStart;
+		long windowBusy;
+
+		Loop(int index) {
+			super("ToxEventLoop-" + index);
+		}
+
+		/**
+		 * Run the given task on this loop's thread
+		 */
+		void execute(Runnable task) {
+			this.tasks.offer(task);
+			LockSupport.unpark(this);
+		}
+
+		@Override
+		public void run() {
+			this.windowStart = System.nanoTime();
+			try {
+				while (!ToxEventLoopGroup.this.shutdown) {
+					Runnable task;
+					while ((task = this.tasks.poll()) != null) {
+						task.run();
+					}
+
+					long now = System.nanoTime();
+					if (now - this.windowStart >= WINDOW) {
+						endWindow(now);
+					}
+
+					long windowEnd = this.windowStart + WINDOW;
+					if (this.size == 0) {
+						LockSupport.parkNanos(this, windowEnd - now);
+					} else if (this.heap[0].deadline - now > 0) {
+						LockSupport.parkNanos(this,
+								Math.min(this.heap[0].deadline, windowEnd) - now);
+					} else {
+						runOnce(this.heap[0]);
+					}
+				}
+			} finally {
+				while (this.size > 0) {
+					drop(this.heap[0]);
+				}
+			}
+		}
+
+		private void runOnce(Registration reg) {
+			if (reg.removed) {
+				drop(reg);
+				return;
+			}
+			long activity = reg.tox.getActivity();
+			long start = System.nanoTime();
+			long recommended;
+			try {
+				reg.tox.doTox();
+				recommended = TimeUnit.MILLISECONDS.toNanos(reg.tox
+						.getDoInterval());
+			} catch (ToxException e) {
+				drop(reg);
+				return;
+			} catch (RuntimeException e) {
+				// Do not let one instance's callbacks take down the others,
+				// and keep driving the instance
+				getUncaughtExceptionHandler().uncaughtException(this, e);
+				recommended = ToxEventLoopGroup.this.busyInterval;
+			}
+			long end = System.nanoTime();
+			this.windowBusy += end - start;
+			reg.windowBusy += end - start;
+
+			if (reg.tox.getActivity() != activity) {
+				reg.interval = ToxEventLoopGroup.this.busyInterval;
+			} else {
+				reg.interval = Math.min(reg.interval * 2,
+						ToxEventLoopGroup.this.idleInterval);
+			}
+			reschedule(reg, end + Math.min(reg.interval, recommended));
+		}
+
+		private void endWindow(long now) {
+			this.utilization = (double) this.windowBusy
+					/ (now - this.windowStart);
+			this.windowStart = now;
+			this.windowBusy = 0;
+			for (int i = 0; i < this.size; i++) {
+				this.heap[i].cost = this.heap[i].windowBusy;
+				this.heap[i].windowBusy = 0;
+			}
+			if (this == ToxEventLoopGroup.this.loops[0]) {
+				rebalance();
+			}
+		}
+
+		/**
+		 * Add a registration that is new to this loop, due immediately
+		 */
+		void add(Registration reg) {
+			if (reg.removed) {
+				this.assigned.decrementAndGet();
+				release(reg);
+				return;
+			}
+			if (this.size == this.heap.length) {
+				this.heap = Arrays.copyOf(this.heap, this.size * 2);
+			}
+			reg.heapLoop = this;
+			reg.index = this.size;
+			reg.deadline = System.nanoTime();
+			reg.windowBusy = 0;
+			this.heap[this.size++] = reg;
+			siftUp(reg.index);
+		}
+
+		/**
+		 * Remove a registration from this loop's heap
+		 */
+		void remove(Registration reg) {
+			int i = reg.index;
+			Registration last = this.heap[--this.size];
+			this.heap[this.size] = null;
+			reg.index = -1;
+			reg.heapLoop = null;
+			if (i != this.size) {
+				this.heap[i] = last;
+				last.index = i;
+				siftDown(i);
+				siftUp(last.index);
+			}
+		}
+
+		/**
+		 * Remove a registration from this loop for good
+		 */
+		void drop(Registration reg) {
+			remove(reg);
+			this.assigned.decrementAndGet();
+			release(reg);
+		}
+
+		void reschedule(Registration reg, long deadline) {
+			long old = reg.deadline;
+			reg.deadline = deadline;
+			if (deadline - old < 0) {
+				siftUp(reg.index);
+			} else {
+				siftDown(reg.index);
+			}
+		}
+
+		private void siftUp(int i) {
+			Registration reg = this.heap[i];
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				Registration p = this.heap[parent];
+				if (reg.deadline - p.deadline >= 0) {
+					break;
+				}
+				this.heap[i] = p;
+				p.index = i;
+				i = parent;
+			}
+			this.heap[i] = reg;
+			reg.index = i;
+		}
+
+		private void siftDown(int i) {
+			Registration reg = this.heap[i];
+			int half = this.size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				Registration c = this.heap[child];
+				int right = child + 1;
+				if (right < this.size
+						&& this.heap[right].deadline - c.deadline < 0) {
+					child = right;
+					c = this.heap[child];
+				}
+				if (reg.deadline - c.deadline <= 0) {
+					break;
+				}
+				this.heap[i] = c;
+				c.index = i;
+				i = child;
+			}
+			this.heap[i] = reg;
+			reg.index = i;
+		}
+	}
+
+	/**
+	 * Creates a new event loop group with one loop per available processor and
+	 * the default frequencies of {@link ToxWorker}
+	 */
+	public ToxEventLoopGroup() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new event loop group with the default frequencies of
+	 * {@link ToxWorker}
+	 *
+	 * @param threads
+	 *            the number of loops
+	 */
+	public ToxEventLoopGroup(int threads) {
+		this(threads, ToxWorker.DEFAULT_FREQUENCY, JTox.DEFAULT_DO_INTERVAL);
+	}
+
+	/**
+	 * Creates a new event loop group. The loop threads are started right away.
+	 *
+	 * @param threads
+	 *            the number of loops
+	 * @param frequency
+	 *            the frequency of each instance while traffic is flowing (in
+	 *            Hz), see {@link ToxWorker#ToxWorker(JTox, int, int)}
+	 * @param idleInterval
+	 *            the longest interval between two iterations of an idle
+	 *            instance (in milliseconds)
+	 */
+	public ToxEventLoopGroup(int threads, int frequency, int idleInterval) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.busyInterval = TimeUnit.SECONDS.toNanos(1)
+				/ Math.max(frequency, ToxWorker.MIN_FREQUENCY);
+		this.idleInterval = Math.max(
+				TimeUnit.MILLISECONDS.toNanos(idleInterval), this.busyInterval);
+		this.loops = new Loop[threads];
+		for (int i = 0; i < threads; i++) {
+			this.loops[i] = new Loop(i);
+		}
+		for (Loop loop : this.loops) {
+			loop.start();
+		}
+	}
+
+	/**
+	 * Start driving the given instance on the loop with the fewest instances.
+	 * Does nothing if the instance is already registered.
+	 *
+	 * @param tox
+	 *            the instance
+	 * @throws IllegalStateException
+	 *             if the group has been shut down
+	 */
+	public void register(JTox<?> tox) {
+		if (this.shutdown) {
+			throw new IllegalStateException("Event loop group is shut down");
+		}
+		Loop target = this.loops[0];
+		for (Loop loop : this.loops) {
+			if (loop.assigned.get() < target.assigned.get()) {
+				target = loop;
+			}
+		}
+		final Registration reg = new Registration(tox, target);
+		if (this.registrations.putIfAbsent(tox, reg) != null) {
+			return;
+		}
+		target.assigned.incrementAndGet();
+		tox.setWakeup(reg);
+		final Loop loop = target;
+		loop.execute(new Runnable() {
+			@Override
+			public void run() {
+				loop.add(reg);
+			}
+		});
+	}
+
+	/**
+	 * Stop driving the given instance. Its loop may be in the middle of a call
+	 * to {@link JTox#doTox()} for it, but will not start another one.
+	 *
+	 * @param tox
+	 *            the instance
+	 */
+	public void unregister(JTox<?> tox) {
+		Registration reg = this.registrations.remove(tox);
+		if (reg != null) {
+			// The loop drops the registration when it is due next
+			reg.removed = true;
+			tox.setWakeup(null);
+		}
+	}
+
+	/**
+	 * Set the handler for RuntimeExceptions thrown by callbacks on all loops
+	 * of this group. The instance whose callback threw stays registered.
+	 *
+	 * @param handler
+	 *            the handler, or null to use the default handler
+	 */
+	public void setUncaughtExceptionHandler(
+			Thread.UncaughtExceptionHandler handler) {
+		for (Loop loop : this.loops) {
+			loop.setUncaughtExceptionHandler(handler);
+		}
+	}
+
+	/**
+	 * @return the number of loops in this group
+	 */
+	public int getLoopCount() {
+		return this.loops.length;
+	}
+
+	/**
+	 * @param loop
+	 *            index of the loop, from 0 to {@link #getLoopCount()} - 1
+	 * @return the number of instances assigned to the given loop
+	 */
+	public int getInstanceCount(int loop) {
+		return this.loops[loop].assigned.get();
+	}
+
+	/**
+	 * @param loop
+	 *            index of the loop, from 0 to {@link #getLoopCount()} - 1
+	 * @return the share of time the given loop spent calling
+	 *         {@link JTox#doTox()} during the last complete measuring window of
+	 *         one second, from 0 to 1
+	 */
+	public double getUtilization(int loop) {
+		return this.loops[loop].utilization;
+	}
+
+	/**
+	 * Stop all loops. Instances are not killed, but no longer driven. Does not
+	 * wait for the loops to finish their current iteration.
+	 */
+	public void shutdown() {
+		this.shutdown = true;
+		for (Loop loop : this.loops) {
+			LockSupport.unpark(loop);
+		}
+	}
+
+	/**
+	 * Wait until all loops have stopped after {@link #shutdown()}
+	 *
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of timeout
+	 * @return <code>true</code> if all loops have stopped
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		for (Loop loop : this.loops) {
+			long remaining = end - System.nanoTime();
+			if (remaining > 0) {
+				TimeUnit.NANOSECONDS.timedJoin(loop, remaining);
+			}
+			if (loop.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Forget a registration that has been dropped by its loop
+	 */
+	private void release(Registration reg) {
+		if (this.registrations.remove(reg.tox, reg)) {
+			reg.tox.setWakeup(null);
+		}
+	}
+
+	/**
+	 * Move one instance from the busiest to the idlest loop, if their
+	 * utilization differs enough. Called by the first loop at the end of each
+	 * of its windows.
+	 */
+	private void rebalance() {
+		Loop busiest = this.loops[0];
+		Loop idlest = this.loops[0];
+		for (Loop loop : this.loops) {
+			if (loop.utilization > busiest.utilization) {
+				busiest = loop;
+			}
+			if (loop.utilization < idlest.utilization) {
+				idlest = loop;
+			}
+		}
+		double gap = busiest.utilization - idlest.utilization;
+		if (gap < REBALANCE_THRESHOLD) {
+			return;
+		}
+
+		// Pick the instance whose cost comes closest to evening out the two
+		// loops. Moving an instance that costs more than the gap would only
+		// swap their roles.
+		long ideal = (long) (gap / 2 * WINDOW);
+		long limit = (long) (gap * WINDOW);
+		Registration best = null;
+		long bestDistance = Long.MAX_VALUE;
+		for (Registration reg : this.registrations.values()) {
+			long cost = reg.cost;
+			if (reg.loop == busiest && cost > 0 && cost < limit) {
+				long distance = Math.abs(cost - ideal);
+				if (distance < bestDistance) {
+					best = reg;
+					bestDistance = distance;
+				}
+			}
+		}
+		if (best != null) {
+			migrate(best, busiest, idlest);
+		}
+	}
+
+	private static void migrate(final Registration reg, final Loop from,
+			final Loop to) {
+		from.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (reg.heapLoop != from || reg.removed) {
+					return;
+				}
+				from.remove(reg);
+				from.assigned.decrementAndGet();
+				to.assigned.incrementAndGet();
+				reg.loop = to;
+				to.execute(new Runnable() {
+					@Override
+					public void run() {
+						to.add(reg);
+					}
+				});
+			}
+		});
+	}
+}
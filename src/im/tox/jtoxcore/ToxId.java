@@ -0,0 +1,220 @@
+/* ToxId.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.Arrays;
+
+/**
+ * Immutable binary Tox identifier. A ToxId is either a public key (client id)
+ * of {@link #PUBLIC_KEY_SIZE} bytes, or a full address of
+ * {@link #ADDRESS_SIZE} bytes, which is a public key followed by the nospam
+ * value and a checksum.
+ * <p/>
+ * The hexadecimal representation is only computed when it is first needed, and
+ * the hash code is cached, so ToxIds are cheap to use as map keys.
+ */
+public final class ToxId {
+
+	/**
+	 * Size of a public key in bytes
+	 */
+	public static final int PUBLIC_KEY_SIZE = 32;
+
+	/**
+	 * Size of an address in bytes
+	 */
+	public static final int ADDRESS_SIZE = PUBLIC_KEY_SIZE + 4 + 2;
+
+	/**
+	 * Upper case hex digits for every byte value, two chars per byte
+	 */
+	private static final char[] HEX_TABLE = new char[512];
+
+	static {
+		char[] digits = "0123456789ABCDEF".toCharArray();
+		for (int i = 0; i < 256; i++) {
+			HEX_TABLE[2 * i] = digits[i >>> 4];
+			HEX_TABLE[2 * i + 1] = digits[i & 0x0f];
+		}
+	}
+
+	private final byte[] bytes;
+	private int hash;
+	private String hex;
+
+	private ToxId(byte[] bytes) {
+		if (bytes.length != PUBLIC_KEY_SIZE && bytes.length != ADDRESS_SIZE) {
+			throw new IllegalArgumentException("Invalid Tox id length: "
+					+ bytes.length);
+		}
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Create a ToxId from the given bytes. The array is copied.
+	 *
+	 * @param bytes
+	 *            a public key or address
+	 * @return the ToxId
+	 * @throws IllegalArgumentException
+	 *             if the array has neither the length of a public key nor the
+	 *             length of an address
+	 */
+	public static ToxId fromBytes(byte[] bytes) {
+		return new ToxId(bytes.clone());
+	}
+
+	/**
+	 * Create a ToxId from the given array without copying it. The caller must
+	 * not modify the array afterwards.
+	 *
+	 * @param bytes
+	 *            a public key or address
+	 * @return the ToxId
+	 */
+	static ToxId wrap(byte[] bytes) {
+		return new ToxId(bytes);
+	}
+
+	/**
+	 * Parse a ToxId from its hexadecimal representation. Upper and lower case
+	 * digits are accepted.
+	 *
+	 * @param hex
+	 *            the hexadecimal public key or address
+	 * @return the ToxId
+	 * @throws IllegalArgumentException
+	 *             if the String contains non-hexadecimal characters, or has
+	 *             neither the length of a public key nor the length of an
+	 *             address
+	 */
+	public static ToxId fromHex(String hex) {
+		int length = hex.length();
+		if (length != 2 * PUBLIC_KEY_SIZE && length != 2 * ADDRESS_SIZE) {
+			throw new IllegalArgumentException("Invalid Tox id length: "
+					+ length);
+		}
+		byte[] out = new byte[length / 2];
+		for (int i = 0; i < length; i += 2) {
+			int high = Character.digit(hex.charAt(i), 16);
+			int low = Character.digit(hex.charAt(i + 1), 16);
+			if (high < 0 || low < 0) {
+				throw new IllegalArgumentException("Invalid Tox id: " + hex);
+			}
+			out[i / 2] = (byte) ((high << 4) | low);
+		}
+		return new ToxId(out);
+	}
+
+	/**
+	 * @return a copy of the bytes of this id
+	 */
+	public byte[] getBytes() {
+		return this.bytes.clone();
+	}
+
+	/**
+	 * Internal access to the bytes of this id, without copying. Callers must
+	 * not modify the returned array.
+	 *
+	 * @return the bytes of this id
+	 */
+	byte[] bytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the length of this id in bytes
+	 */
+	public int length() {
+		return this.bytes.length;
+	}
+
+	/**
+	 * @return <code>true</code> if this id is a full address, including nospam
+	 *         and checksum
+	 */
+	public boolean isAddress() {
+		return this.bytes.length == ADDRESS_SIZE;
+	}
+
+	/**
+	 * @return the public key part of this id. If this id already is a public
+	 *         key, this instance is returned.
+	 */
+	public ToxId getPublicKey() {
+		if (!isAddress()) {
+			return this;
+		}
+		byte[] key = new byte[PUBLIC_KEY_SIZE];
+		System.arraycopy(this.bytes, 0, key, 0, PUBLIC_KEY_SIZE);
+		return new ToxId(key);
+	}
+
+	/**
+	 * @return the upper case hexadecimal representation of this id
+	 */
+	public String toHexString() {
+		String result = this.hex;
+		if (result == null) {
+			char[] out = new char[this.bytes.length * 2];
+			for (int i = 0; i < this.bytes.length; i++) {
+				int b = (this.bytes[i] & 0xff) << 1;
+				out[2 * i] = HEX_TABLE[b];
+				out[2 * i + 1] = HEX_TABLE[b + 1];
+			}
+			result = new String(out);
+			this.hex = result;
+		}
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = this.hash;
+		if (h == 0) {
+			h = Arrays.hashCode(this.bytes);
+			this.hash = h;
+		}
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ToxId)) {
+			return false;
+		}
+		ToxId other = (ToxId) obj;
+		return hashCode() == other.hashCode()
+				&& Arrays.equals(this.bytes, other.bytes);
+	}
+
+	/**
+	 * @return the hexadecimal representation of this id
+	 */
+	@Override
+	public String toString() {
+		return toHexString();
+	}
+}
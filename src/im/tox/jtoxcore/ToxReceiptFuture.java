@@ -0,0 +1,194 @@
+/* ToxReceiptFuture.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future for the delivery of a message sent with
+ * {@link JTox#sendMessageAsync(ToxFriend, String)}. It completes with the
+ * message ID once the friend's read receipt for the message arrives.
+ * <p/>
+ * If no receipt arrives within the receipt timeout of the instance,
+ * {@link #get()} throws an ExecutionException caused by a
+ * {@link TimeoutException}. If the instance is killed first, the cause is a
+ * {@link ToxException} with {@link ToxError#TOX_KILLED_INSTANCE}. If the friend
+ * is deleted, the future is cancelled.
+ * <p/>
+ * Listeners added with {@link #addListener(Runnable)} are run once the future
+ * is done. Receipts and timeouts are processed by {@link JTox#doTox()}, so
+ * listeners usually run on the thread calling it, while it holds the instance
+ * lock. They should return quickly.
+ */
+public final class ToxReceiptFuture implements Future<Integer> {
+
+	private final int friendnumber;
+	private final int messageId;
+
+	/**
+	 * Point in time, in {@link System#nanoTime()}, after which the future
+	 * times out
+	 */
+	final long deadline;
+
+	private boolean done;
+	private boolean cancelled;
+	private Throwable failure;
+	private List<Runnable> listeners;
+
+	ToxReceiptFuture(int friendnumber, int messageId, long deadline) {
+		this.friendnumber = friendnumber;
+		this.messageId = messageId;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return the number of the friend the message was sent to
+	 */
+	public int getFriendnumber() {
+		return this.friendnumber;
+	}
+
+	/**
+	 * @return the ID of the sent message
+	 */
+	public int getMessageId() {
+		return this.messageId;
+	}
+
+	/**
+	 * Run the given listener once this future is done. If it is done already,
+	 * the listener is run right away on the calling thread.
+	 *
+	 * @param listener
+	 *            the listener
+	 */
+	public void addListener(Runnable listener) {
+		synchronized (this) {
+			if (!this.done) {
+				if (this.listeners == null) {
+					this.listeners = new ArrayList<Runnable>(1);
+				}
+				this.listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	/**
+	 * Complete this future successfully
+	 *
+	 * @return <code>false</code> if the future was already done
+	 */
+	boolean complete() {
+		return finish(false, null);
+	}
+
+	/**
+	 * Complete this future with the given cause
+	 *
+	 * @return <code>false</code> if the future was already done
+	 */
+	boolean fail(Throwable cause) {
+		return finish(false, cause);
+	}
+
+	private boolean finish(boolean cancel, Throwable cause) {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (this.done) {
+				return false;
+			}
+			this.done = true;
+			this.cancelled = cancel;
+			this.failure = cause;
+			toRun = this.listeners;
+			this.listeners = null;
+			notifyAll();
+		}
+		if (toRun != null) {
+			for (Runnable listener : toRun) {
+				listener.run();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cancel waiting for the read receipt. The message itself has already
+	 * been sent and can not be recalled.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(true, null);
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return this.done;
+	}
+
+	@Override
+	public synchronized Integer get() throws InterruptedException,
+			ExecutionException {
+		while (!this.done) {
+			wait();
+		}
+		return result();
+	}
+
+	@Override
+	public synchronized Integer get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long remaining = unit.toNanos(timeout);
+		long end = System.nanoTime() + remaining;
+		while (!this.done) {
+			if (remaining <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			remaining = end - System.nanoTime();
+		}
+		return result();
+	}
+
+	private Integer result() throws ExecutionException {
+		if (this.cancelled) {
+			throw new CancellationException();
+		}
+		if (this.failure != null) {
+			throw new ExecutionException(this.failure);
+		}
+		return this.messageId;
+	}
+}
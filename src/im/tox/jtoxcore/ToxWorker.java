@@ -20,59 +20,121 @@
  */
 package im.tox.jtoxcore;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Default implementation for a Tox Worker runnable. It calls
- * {@link JTox#doTox()} at the given frequency. If no frequency is given, or the
- * given frequency is < 20, it will be set to 20, which is the minimum frequency
- * as suggested by the core developers.
+ * {@link JTox#doTox()} in a loop, adapting the interval between two calls to
+ * the traffic of the instance:
+ * <ul>
+ * <li>While an iteration delivers events or runs enqueued commands, the next
+ * one follows after the busy interval, given by the frequency.</li>
+ * <li>While the instance is idle, the interval doubles after each iteration,
+ * up to the idle interval. It never exceeds the interval toxcore recommends,
+ * see {@link JTox#getDoInterval()}. By default, the idle interval is 50ms,
+ * which corresponds to the minimum frequency of 20Hz suggested by the core
+ * developers.</li>
+ * <li>When a command is enqueued with
+ * {@link JTox#enqueue(java.util.concurrent.Callable)} or one of the enqueue
+ * methods, the worker wakes up immediately.</li>
+ * </ul>
  * <p/>
  * When the instance is killed, a call to {@link JTox#doTox()} will result in an
  * exception. This exception will be caught, and the run method will terminate,
- * thus terminating the Thread this Worker is running in.
+ * thus terminating the Thread this Worker is running in. The run method also
+ * terminates when the thread is interrupted.
  *
  * @author sonOfRa
  */
 public class ToxWorker implements Runnable {
 
-    private JTox<?> instance;
-    private int sleeptime;
+    /**
+     * Default frequency while traffic is flowing, in Hz
+     */
+    public static final int DEFAULT_FREQUENCY = 100;
+
+    /**
+     * Minimum frequency, in Hz
+     */
+    public static final int MIN_FREQUENCY = 20;
+
+    private final JTox<?> instance;
+    private final long busyInterval;
+    private final long idleInterval;
 
     /**
-     * Creates a new Tox worker runnable with the default frequency of 20Hz
+     * Creates a new Tox worker runnable with the default busy frequency of
+     * 100Hz, backing off to 20Hz when idle
      *
      * @param instance the JTox instance to work on
      */
     public ToxWorker(JTox<?> instance) {
-        this.instance = instance;
-        this.sleeptime = 1000 / 20;
+        this(instance, DEFAULT_FREQUENCY);
     }
 
     /**
-     * Creates a new Tox worker runnable with the given frequency. The minimum
-     * frequency is 20, if the frequency is smaller than 20, it will be set to
-     * 20.
+     * Creates a new Tox worker runnable with the given busy frequency, backing
+     * off to 20Hz when idle. The minimum frequency is 20, if the frequency is
+     * smaller than 20, it will be set to 20.
      *
      * @param instance  the JTox instance to work on
-     * @param frequency the frequency (in Hz)
+     * @param frequency the frequency while traffic is flowing (in Hz)
      */
     public ToxWorker(JTox<?> instance, int frequency) {
+        this(instance, frequency, JTox.DEFAULT_DO_INTERVAL);
+    }
+
+    /**
+     * Creates a new Tox worker runnable with the given busy frequency and idle
+     * interval. The minimum frequency is 20, if the frequency is smaller than
+     * 20, it will be set to 20.
+     *
+     * @param instance     the JTox instance to work on
+     * @param frequency    the frequency while traffic is flowing (in Hz)
+     * @param idleInterval the longest interval between two iterations while the
+     *                     instance is idle (in milliseconds). Intervals longer
+     *                     than 50ms go below the frequency suggested by the core
+     *                     developers and may hurt connectivity.
+     */
+    public ToxWorker(JTox<?> instance, int frequency, int idleInterval) {
         this.instance = instance;
-        this.sleeptime = 1000 / frequency >= 20 ? frequency : 20;
+        this.busyInterval = TimeUnit.SECONDS.toNanos(1)
+                / Math.max(frequency, MIN_FREQUENCY);
+        this.idleInterval = Math.max(
+                TimeUnit.MILLISECONDS.toNanos(idleInterval), this.busyInterval);
     }
 
     @Override
     public void run() {
-        while (true) {
-            try {
-                this.instance.doTox();
-            } catch (ToxException e) {
-                return;
+        final Thread thread = Thread.currentThread();
+        this.instance.setWakeup(new Runnable() {
+            @Override
+            public void run() {
+                LockSupport.unpark(thread);
             }
-            try {
-                Thread.sleep(this.sleeptime);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+        });
+        try {
+            long interval = this.busyInterval;
+            while (!thread.isInterrupted()) {
+                long activity = this.instance.getActivity();
+                long recommended;
+                try {
+                    this.instance.doTox();
+                    recommended = TimeUnit.MILLISECONDS.toNanos(this.instance
+                            .getDoInterval());
+                } catch (ToxException e) {
+                    return;
+                }
+                if (this.instance.getActivity() != activity) {
+                    interval = this.busyInterval;
+                } else {
+                    interval = Math.min(interval * 2, this.idleInterval);
+                }
+                LockSupport.parkNanos(this, Math.min(interval, recommended));
             }
+        } finally {
+            this.instance.setWakeup(null);
         }
     }
 
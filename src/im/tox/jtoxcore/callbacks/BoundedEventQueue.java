@@ -0,0 +1,375 @@
+/* BoundedEventQueue.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executor that decouples the callbacks of a {@link CallbackHandler} from the
+ * thread calling {@link im.tox.jtoxcore.JTox#doTox()} through a bounded queue.
+ * A single background thread takes the events from the queue in order and
+ * hands them to a downstream executor, which runs them on the background
+ * thread itself by default.
+ * <p/>
+ * What happens when the queue is full depends on the {@link OverflowPolicy}.
+ * Only state changes, that is name changes, status message changes, user
+ * status changes and connection status changes, are ever dropped or
+ * coalesced. Messages, actions, friend requests and read receipts are never
+ * lost: if the queue is full and no state change can make room for them, the
+ * caller waits.
+ * <p/>
+ * While the caller waits, the thread calling doTox holds the instance lock, so
+ * callbacks run by this executor must not call methods of the instance that
+ * take the lock. They should use the enqueue methods of
+ * {@link im.tox.jtoxcore.JTox} instead, which never block.
+ * 
+ * @see CallbackHandler#setExecutor(Executor)
+ */
+public final class BoundedEventQueue implements Executor {
+
+	/**
+	 * What to do when the queue is full
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait until there is space
+		 */
+		BLOCK,
+
+		/**
+		 * Drop the oldest waiting state change. If there is none, wait.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Whenever a state change arrives while an older one of the same type
+		 * and friend is still waiting, deliver only the newer one, at the
+		 * position of the older one. This happens whether or not the queue is
+		 * full. If the queue is full and the event cannot be coalesced, wait.
+		 */
+		COALESCE
+	}
+
+	/**
+	 * Default capacity of the queue
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Executor downstream;
+	private final Thread thread;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = this.lock.newCondition();
+	private final Condition notFull = this.lock.newCondition();
+	private final ArrayDeque<Runnable> queue;
+
+	/**
+	 * Newest event for each coalesced type and friend whose oldest event is
+	 * still waiting in the queue. Only used with
+	 * {@link OverflowPolicy#COALESCE}.
+	 */
+	private final Map<Long, ToxEvent<?>> latest = new HashMap<Long, ToxEvent<?>>();
+
+	private boolean shutdown;
+	private long dropped;
+	private long coalesced;
+	private long waits;
+	private long delivered;
+
+	/**
+	 * Creates an event queue with the default capacity that runs the
+	 * callbacks on its background thread
+	 * 
+	 * @param policy
+	 *            what to do when the queue is full
+	 */
+	public BoundedEventQueue(OverflowPolicy policy) {
+		this(DEFAULT_CAPACITY, policy, CallbackExecutors.inline());
+	}
+
+	/**
+	 * Creates an event queue. The background thread is a daemon thread and
+	 * started right away.
+	 * 
+	 * @param capacity
+	 *            the maximum number of events waiting in the queue
+	 * @param policy
+	 *            what to do when the queue is full
+	 * @param downstream
+	 *            the executor the background thread hands the events to, for
+	 *            example a {@link StripedExecutor}
+	 */
+	public BoundedEventQueue(int capacity, OverflowPolicy policy,
+			Executor downstream) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException();
+		}
+		if (policy == null || downstream == null) {
+			throw new NullPointerException();
+		}
+		this.capacity = capacity;
+		this.policy = policy;
+		this.downstream = downstream;
+		this.queue = new ArrayDeque<Runnable>(Math.min(capacity, 1024));
+		this.thread = new Thread("ToxEventQueue") {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Add an event to the queue, applying the overflow policy if it is full
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the queue has been shut down
+	 */
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		ToxEvent<?> event = null;
+		if (command instanceof ToxEvent
+				&& ((ToxEvent<?>) command).isStateChange()) {
+			event = (ToxEvent<?>) command;
+		}
+
+		boolean interrupted = false;
+		this.lock.lock();
+		try {
+			if (this.shutdown) {
+				throw new RejectedExecutionException("Event queue is shut down");
+			}
+			if (event != null && this.policy == OverflowPolicy.COALESCE) {
+				Long key = key(event);
+				if (this.latest.containsKey(key)) {
+					this.latest.put(key, event);
+					this.coalesced++;
+					return;
+				}
+			}
+
+			if (this.queue.size() >= this.capacity
+					&& this.policy == OverflowPolicy.DROP_OLDEST) {
+				dropOldestStateChange();
+			}
+			if (this.queue.size() >= this.capacity) {
+				this.waits++;
+				while (this.queue.size() >= this.capacity && !this.shutdown) {
+					try {
+						this.notFull.await();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (this.shutdown) {
+					throw new RejectedExecutionException(
+							"Event queue is shut down");
+				}
+			}
+
+			if (event != null && this.policy == OverflowPolicy.COALESCE) {
+				this.latest.put(key(event), event);
+			}
+			this.queue.add(command);
+			this.notEmpty.signal();
+		} finally {
+			this.lock.unlock();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void dropOldestStateChange() {
+		Iterator<Runnable> it = this.queue.iterator();
+		while (it.hasNext()) {
+			Runnable queued = it.next();
+			if (queued instanceof ToxEvent
+					&& ((ToxEvent<?>) queued).isStateChange()) {
+				it.remove();
+				this.dropped++;
+				return;
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			Runnable command;
+			this.lock.lock();
+			try {
+				while (this.queue.isEmpty()) {
+					if (this.shutdown) {
+						return;
+					}
+					this.notEmpty.awaitUninterruptibly();
+				}
+				command = this.queue.poll();
+				if (this.policy == OverflowPolicy.COALESCE
+						&& command instanceof ToxEvent
+						&& ((ToxEvent<?>) command).isStateChange()) {
+					command = this.latest.remove(key((ToxEvent<?>) command));
+				}
+				this.delivered++;
+				this.notFull.signal();
+			} finally {
+				this.lock.unlock();
+			}
+
+			try {
+				this.downstream.execute(command);
+			} catch (RuntimeException e) {
+				// Keep delivering the other events
+				this.thread.getUncaughtExceptionHandler().uncaughtException(
+						this.thread, e);
+			}
+		}
+	}
+
+	private static Long key(ToxEvent<?> event) {
+		return Long.valueOf(((long) event.type.ordinal() << 32)
+				| (event.friendnumber & 0xffffffffL));
+	}
+
+	/**
+	 * @return the maximum number of events waiting in the queue
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @return the overflow policy
+	 */
+	public OverflowPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * @return the number of events currently waiting in the queue
+	 */
+	public int getSize() {
+		this.lock.lock();
+		try {
+			return this.queue.size();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of state changes dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		this.lock.lock();
+		try {
+			return this.dropped;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of state changes replaced by a newer one before
+	 *         they were delivered
+	 */
+	public long getCoalescedCount() {
+		this.lock.lock();
+		try {
+			return this.coalesced;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return how often an event had to wait because the queue was full
+	 */
+	public long getFullCount() {
+		this.lock.lock();
+		try {
+			return this.waits;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of events handed to the downstream executor
+	 */
+	public long getDeliveredCount() {
+		this.lock.lock();
+		try {
+			return this.delivered;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stop accepting new events. Events already waiting are still delivered,
+	 * then the background thread terminates.
+	 */
+	public void shutdown() {
+		this.lock.lock();
+		try {
+			this.shutdown = true;
+			this.notEmpty.signal();
+			this.notFull.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until the background thread has terminated after
+	 * {@link #shutdown()}
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of timeout
+	 * @return <code>true</code> if the background thread has terminated
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		unit.timedJoin(this.thread, timeout);
+		return !this.thread.isAlive();
+	}
+}
@@ -0,0 +1,108 @@
+/* CallbackExecutors.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors for dispatching events with a {@link CallbackHandler}
+ * 
+ * @see CallbackHandler#setExecutor(Executor)
+ */
+public final class CallbackExecutors {
+
+	private static final Executor INLINE = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private CallbackExecutors() {
+	}
+
+	/**
+	 * Get the executor that runs callbacks right away on the thread calling
+	 * {@link im.tox.jtoxcore.JTox#doTox()}, while it holds the instance lock.
+	 * This has the lowest latency, but a slow callback stalls the instance.
+	 * This is the default.
+	 * 
+	 * @return the inline executor
+	 */
+	public static Executor inline() {
+		return INLINE;
+	}
+
+	/**
+	 * Check whether the running JVM supports virtual threads (Java 21 or
+	 * later)
+	 * 
+	 * @return <code>true</code> if {@link #virtualThreadPerEvent()} can be used
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return VirtualThreads.FACTORY != null;
+	}
+
+	/**
+	 * Get an executor that starts a new virtual thread for every event. Events
+	 * may then be delivered in a different order than they were received.
+	 * 
+	 * @return the executor
+	 * @throws UnsupportedOperationException
+	 *             if the running JVM does not support virtual threads
+	 */
+	public static Executor virtualThreadPerEvent() {
+		final ThreadFactory factory = VirtualThreads.FACTORY;
+		if (factory == null) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or later");
+		}
+		return new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				factory.newThread(command).start();
+			}
+		};
+	}
+
+	/**
+	 * Looks up the virtual thread factory through reflection, so this library
+	 * still compiles and runs on older Java versions and Android
+	 */
+	private static final class VirtualThreads {
+		static final ThreadFactory FACTORY = lookup();
+
+		private static ThreadFactory lookup() {
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(
+						null);
+				Method factory = Class.forName("java.lang.Thread$Builder")
+						.getMethod("factory");
+				return (ThreadFactory) factory.invoke(builder);
+			} catch (Exception e) {
+				return null;
+			}
+		}
+	}
+}
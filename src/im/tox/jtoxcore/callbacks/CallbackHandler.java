@@ -24,15 +24,22 @@ package im.tox.jtoxcore.callbacks;
 import im.tox.jtoxcore.FriendList;
 import im.tox.jtoxcore.JTox;
 import im.tox.jtoxcore.ToxFriend;
+import im.tox.jtoxcore.ToxId;
 import im.tox.jtoxcore.ToxUserStatus;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Callback Handler class which contains methods to manage the callbacks for a
  * JTox instance.
+ * <p/>
+ * Events are decoded by the thread calling {@link JTox#doTox()} and then handed
+ * to the handler's executor, which runs the callbacks. By default, the
+ * callbacks run inline on the thread calling doTox, while it holds the instance
+ * lock. To keep slow callbacks from stalling the instance, set a different
+ * executor, see {@link #setExecutor(Executor)} and {@link CallbackExecutors}.
+ * Events can also be consumed as a stream, see {@link ToxEventPublisher}.
  * 
  * @author sonOfRa
  * @param <F>
@@ -41,62 +48,243 @@ import java.util.List;
  */
 public class CallbackHandler<F extends ToxFriend> {
 
-	private List<OnActionCallback<F>> onActionCallbacks;
-	private List<OnConnectionStatusCallback<F>> onConnectionStatusCallbacks;
-	private List<OnFriendRequestCallback> onFriendRequestCallbacks;
-	private List<OnMessageCallback<F>> onMessageCallbacks;
-	private List<OnNameChangeCallback<F>> onNameChangeCallbacks;
-	private List<OnReadReceiptCallback<F>> onReadReceiptCallbacks;
-	private List<OnStatusMessageCallback<F>> onStatusMessageCallbacks;
-	private List<OnUserStatusCallback<F>> onUserStatusCallbacks;
+	private final ListenerList<OnActionCallback<F>> onActionCallbacks = new ListenerList<OnActionCallback<F>>();
+	private final ListenerList<OnConnectionStatusCallback<F>> onConnectionStatusCallbacks = new ListenerList<OnConnectionStatusCallback<F>>();
+	private final ListenerList<OnFriendRequestCallback> onFriendRequestCallbacks = new ListenerList<OnFriendRequestCallback>();
+	private final ListenerList<OnMessageCallback<F>> onMessageCallbacks = new ListenerList<OnMessageCallback<F>>();
+	private final ListenerList<OnNameChangeCallback<F>> onNameChangeCallbacks = new ListenerList<OnNameChangeCallback<F>>();
+	private final ListenerList<OnReadReceiptCallback<F>> onReadReceiptCallbacks = new ListenerList<OnReadReceiptCallback<F>>();
+	private final ListenerList<OnStatusMessageCallback<F>> onStatusMessageCallbacks = new ListenerList<OnStatusMessageCallback<F>>();
+	private final ListenerList<OnUserStatusCallback<F>> onUserStatusCallbacks = new ListenerList<OnUserStatusCallback<F>>();
+	private final ListenerList<ToxEventPublisher<F>> publishers = new ListenerList<ToxEventPublisher<F>>();
 
 	private FriendList<F> friendlist;
+	private volatile Executor executor;
 
 	/**
-	 * Default constructor for CallbackHandler. Initializes all Lists as
-	 * synchronized lists.
+	 * Default constructor for CallbackHandler. Callbacks run inline on the
+	 * thread calling {@link JTox#doTox()}.
 	 * 
 	 * @param friendlist
 	 *            the friendlist of the jtox instance that this handler is
 	 *            attached to
 	 */
 	public CallbackHandler(FriendList<F> friendlist) {
+		this(friendlist, CallbackExecutors.inline());
+	}
+
+	/**
+	 * Creates a CallbackHandler that runs its callbacks with the given
+	 * executor.
+	 * 
+	 * @param friendlist
+	 *            the friendlist of the jtox instance that this handler is
+	 *            attached to
+	 * @param executor
+	 *            the executor to run the callbacks with
+	 */
+	public CallbackHandler(FriendList<F> friendlist, Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("executor");
+		}
 		this.friendlist = friendlist;
-		this.onActionCallbacks = Collections
-				.synchronizedList(new ArrayList<OnActionCallback<F>>());
-		this.onConnectionStatusCallbacks = Collections
-				.synchronizedList(new ArrayList<OnConnectionStatusCallback<F>>());
-		this.onFriendRequestCallbacks = Collections
-				.synchronizedList(new ArrayList<OnFriendRequestCallback>());
-		this.onMessageCallbacks = Collections
-				.synchronizedList(new ArrayList<OnMessageCallback<F>>());
-		this.onNameChangeCallbacks = Collections
-				.synchronizedList(new ArrayList<OnNameChangeCallback<F>>());
-		this.onReadReceiptCallbacks = Collections
-				.synchronizedList(new ArrayList<OnReadReceiptCallback<F>>());
-		this.onStatusMessageCallbacks = Collections
-				.synchronizedList(new ArrayList<OnStatusMessageCallback<F>>());
-		this.onUserStatusCallbacks = Collections
-				.synchronizedList(new ArrayList<OnUserStatusCallback<F>>());
-	}
-
-	/**
-	 * Hook for native API to invoke callback methods
+		this.executor = executor;
+	}
+
+	/**
+	 * Set the executor that runs the callbacks. Events received after this
+	 * call are run with the new executor.
+	 * <p/>
+	 * Any executor that does not run a task before {@link Executor#execute}
+	 * returns keeps slow callbacks from stalling the instance, but then the
+	 * callbacks must not rely on the friend list staying unchanged while they
+	 * run. Executors running tasks on several threads may deliver events out
+	 * of order, unless they keep the events of each friend in order like
+	 * {@link StripedExecutor}. If the executor rejects an event, the exception
+	 * is thrown from {@link JTox#doTox()}.
+	 * 
+	 * @param executor
+	 *            the executor, {@link CallbackExecutors#inline()} for the
+	 *            default behaviour
+	 */
+	public void setExecutor(Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("executor");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the executor that runs the callbacks
+	 */
+	public Executor getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Register a listener for every event type whose callback interface it
+	 * implements. For example, an object implementing both
+	 * {@link OnMessageCallback} and {@link OnActionCallback} receives messages
+	 * and actions.
+	 * 
+	 * @param listener
+	 *            the listener. Its callback interfaces must use the friend
+	 *            type of this handler.
+	 * @throws IllegalArgumentException
+	 *             if the listener implements none of the callback interfaces
+	 */
+	@SuppressWarnings("unchecked")
+	public void registerListener(Object listener) {
+		boolean any = false;
+		if (listener instanceof OnActionCallback) {
+			this.onActionCallbacks.add((OnActionCallback<F>) listener);
+			any = true;
+		}
+		if (listener instanceof OnConnectionStatusCallback) {
+			this.onConnectionStatusCallbacks
+					.add((OnConnectionStatusCallback<F>) listener);
+			any = true;
+		}
+		if (listener instanceof OnFriendRequestCallback) {
+			this.onFriendRequestCallbacks
+					.add((OnFriendRequestCallback) listener);
+			any = true;
+		}
+		if (listener instanceof OnMessageCallback) {
+			this.onMessageCallbacks.add((OnMessageCallback<F>) listener);
+			any = true;
+		}
+		if (listener instanceof OnNameChangeCallback) {
+			this.onNameChangeCallbacks.add((OnNameChangeCallback<F>) listener);
+			any = true;
+		}
+		if (listener instanceof OnReadReceiptCallback) {
+			this.onReadReceiptCallbacks
+					.add((OnReadReceiptCallback<F>) listener);
+			any = true;
+		}
+		if (listener instanceof OnStatusMessageCallback) {
+			this.onStatusMessageCallbacks
+					.add((OnStatusMessageCallback<F>) listener);
+			any = true;
+		}
+		if (listener instanceof OnUserStatusCallback) {
+			this.onUserStatusCallbacks.add((OnUserStatusCallback<F>) listener);
+			any = true;
+		}
+		if (!any) {
+			throw new IllegalArgumentException(listener.getClass().getName()
+					+ " implements no callback interface");
+		}
+	}
+
+	/**
+	 * Remove a listener from every event type it was registered for, whether
+	 * through {@link #registerListener(Object)} or the register methods of
+	 * the single event types
+	 * 
+	 * @param listener
+	 *            the listener to remove
+	 */
+	public void unregisterListener(Object listener) {
+		this.onActionCallbacks.remove(listener);
+		this.onConnectionStatusCallbacks.remove(listener);
+		this.onFriendRequestCallbacks.remove(listener);
+		this.onMessageCallbacks.remove(listener);
+		this.onNameChangeCallbacks.remove(listener);
+		this.onReadReceiptCallbacks.remove(listener);
+		this.onStatusMessageCallbacks.remove(listener);
+		this.onUserStatusCallbacks.remove(listener);
+	}
+
+	void addPublisher(ToxEventPublisher<F> publisher) {
+		this.publishers.add(publisher);
+	}
+
+	void removePublisher(ToxEventPublisher<F> publisher) {
+		this.publishers.remove(publisher);
+	}
+
+	/**
+	 * Hand an event of the given friend to the executor
+	 */
+	private void dispatch(ToxEvent.Type type, int friendnumber, String text,
+			ToxUserStatus status, int value) {
+		F friend = this.friendlist.getByFriendNumber(friendnumber);
+		this.executor.execute(new ToxEvent<F>(this, type, friendnumber, friend,
+				null, text, status, value));
+	}
+
+	/**
+	 * Run the callbacks registered for the given event, then publish it
+	 */
+	@SuppressWarnings("unchecked")
+	void deliver(ToxEvent<F> event) {
+		switch (event.type) {
+		case FRIEND_REQUEST:
+			String publicKeyString = event.publicKey.toHexString();
+			for (Object cb : this.onFriendRequestCallbacks.get()) {
+				((OnFriendRequestCallback) cb).execute(publicKeyString,
+						event.text);
+			}
+			break;
+		case MESSAGE:
+			for (Object cb : this.onMessageCallbacks.get()) {
+				((OnMessageCallback<F>) cb).execute(event.friend, event.text);
+			}
+			break;
+		case ACTION:
+			for (Object cb : this.onActionCallbacks.get()) {
+				((OnActionCallback<F>) cb).execute(event.friend, event.text);
+			}
+			break;
+		case NAME_CHANGE:
+			for (Object cb : this.onNameChangeCallbacks.get()) {
+				((OnNameChangeCallback<F>) cb).execute(event.friend,
+						event.text);
+			}
+			break;
+		case STATUS_MESSAGE:
+			for (Object cb : this.onStatusMessageCallbacks.get()) {
+				((OnStatusMessageCallback<F>) cb).execute(event.friend,
+						event.text);
+			}
+			break;
+		case USER_STATUS:
+			for (Object cb : this.onUserStatusCallbacks.get()) {
+				((OnUserStatusCallback<F>) cb).execute(event.friend,
+						event.status);
+			}
+			break;
+		case READ_RECEIPT:
+			for (Object cb : this.onReadReceiptCallbacks.get()) {
+				((OnReadReceiptCallback<F>) cb).execute(event.friend,
+						event.value);
+			}
+			break;
+		case CONNECTION_STATUS:
+			for (Object cb : this.onConnectionStatusCallbacks.get()) {
+				((OnConnectionStatusCallback<F>) cb).execute(event.friend,
+						event.value != 0);
+			}
+			break;
+		}
+		for (Object publisher : this.publishers.get()) {
+			((ToxEventPublisher<F>) publisher).publish(event);
+		}
+	}
+
+	/**
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            friend who sent the action
 	 * @param action
 	 *            the action
 	 */
-	@SuppressWarnings("unused")
-	private void onAction(int friendnumber, byte[] action) {
-		String actionString = JTox.getByteString(action);
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		synchronized (this.onActionCallbacks) {
-			for (OnActionCallback<F> callback : this.onActionCallbacks) {
-				callback.execute(friend, actionString);
-			}
-		}
+	void onAction(int friendnumber, String action) {
+		dispatch(ToxEvent.Type.ACTION, friendnumber, action, null, 0);
 	}
 
 	/**
@@ -135,9 +323,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnActionCallback<F>> void registerOnActionCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnActionCallback(callback);
-		}
+		this.onActionCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -149,26 +335,21 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnActionCallback<F>> void setOnActionCallbacks(
 			List<T> callbacks) {
-		clearOnActionCallbacks();
-		registerOnActionCallbacks(callbacks);
+		this.onActionCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            the friend who's status changed
 	 * @param online
 	 *            friend's status
 	 */
-	@SuppressWarnings("unused")
-	private void onConnectionStatus(int friendnumber, boolean online) {
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		synchronized (this.onConnectionStatusCallbacks) {
-			for (OnConnectionStatusCallback<F> cb : this.onConnectionStatusCallbacks) {
-				cb.execute(friend, online);
-			}
-		}
+	void onConnectionStatus(int friendnumber, boolean online) {
+		dispatch(ToxEvent.Type.CONNECTION_STATUS, friendnumber, null, null,
+				online ? 1 : 0);
 	}
 
 	/**
@@ -209,9 +390,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnConnectionStatusCallback<F>> void registerOnConnectionStatusCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnConnectionStatusCallback(callback);
-		}
+		this.onConnectionStatusCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -223,26 +402,22 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnConnectionStatusCallback<F>> void setOnConnectionStatusCallbacks(
 			List<T> callbacks) {
-		clearOnConnectionStatusCallbacks();
-		registerOnConnectionStatusCallbacks(callbacks);
+		this.onConnectionStatusCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param publicKey
 	 *            the public key of the friend
 	 * @param message
 	 *            the message they sent with the request
 	 */
-	@SuppressWarnings("unused")
-	private void onFriendRequest(String publicKey, byte[] message) {
-		String messageString = JTox.getByteString(message);
-		synchronized (this.onFriendRequestCallbacks) {
-			for (OnFriendRequestCallback cb : this.onFriendRequestCallbacks) {
-				cb.execute(publicKey, messageString);
-			}
-		}
+	void onFriendRequest(ToxId publicKey, String message) {
+		this.executor.execute(new ToxEvent<F>(this,
+				ToxEvent.Type.FRIEND_REQUEST, -1, null, publicKey, message, null,
+				0));
 	}
 
 	/**
@@ -281,9 +456,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnFriendRequestCallback> void registerOnFriendRequestCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnFriendRequestCallback(callback);
-		}
+		this.onFriendRequestCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -294,27 +467,20 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnFriendRequestCallback> void setOnFriendRequestCallbacks(
 			List<T> callbacks) {
-		clearOnFriendRequestCallbacks();
-		registerOnFriendRequestCallbacks(callbacks);
+		this.onFriendRequestCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            the friend who sent the message
 	 * @param message
 	 *            the message
 	 */
-	@SuppressWarnings("unused")
-	private void onMessage(int friendnumber, byte[] message) {
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		String messageString = JTox.getByteString(message);
-		synchronized (this.onMessageCallbacks) {
-			for (OnMessageCallback<F> cb : this.onMessageCallbacks) {
-				cb.execute(friend, messageString);
-			}
-		}
+	void onMessage(int friendnumber, String message) {
+		dispatch(ToxEvent.Type.MESSAGE, friendnumber, message, null, 0);
 	}
 
 	/**
@@ -352,9 +518,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnMessageCallback<F>> void registerOnMessageCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnMessageCallback(callback);
-		}
+		this.onMessageCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -365,27 +529,20 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnMessageCallback<F>> void setOnMessageCallbacks(
 			List<T> callbacks) {
-		clearOnMessageCallbacks();
-		registerOnMessageCallbacks(callbacks);
+		this.onMessageCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            friend who changed their name
 	 * @param newname
 	 *            friend's new name
 	 */
-	@SuppressWarnings("unused")
-	private void onNameChange(int friendnumber, byte[] newname) {
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		String newnameString = JTox.getByteString(newname);
-		synchronized (this.onNameChangeCallbacks) {
-			for (OnNameChangeCallback<F> cb : this.onNameChangeCallbacks) {
-				cb.execute(friend, newnameString);
-			}
-		}
+	void onNameChange(int friendnumber, String newname) {
+		dispatch(ToxEvent.Type.NAME_CHANGE, friendnumber, newname, null, 0);
 	}
 
 	/**
@@ -423,9 +580,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnNameChangeCallback<F>> void addOnNameChangeCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnNameChangeCallback(callback);
-		}
+		this.onNameChangeCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -436,26 +591,20 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnNameChangeCallback<F>> void setOnNameChangeCallbacks(
 			List<T> callbacks) {
-		clearOnNameChangeCallbacks();
-		addOnNameChangeCallbacks(callbacks);
+		this.onNameChangeCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            the friend who sent the receipt
 	 * @param receipt
 	 *            number of the receipt
 	 */
-	@SuppressWarnings("unused")
-	private void onReadReceipt(int friendnumber, int receipt) {
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		synchronized (this.onReadReceiptCallbacks) {
-			for (OnReadReceiptCallback<F> cb : this.onReadReceiptCallbacks) {
-				cb.execute(friend, receipt);
-			}
-		}
+	void onReadReceipt(int friendnumber, int receipt) {
+		dispatch(ToxEvent.Type.READ_RECEIPT, friendnumber, null, null, receipt);
 	}
 
 	/**
@@ -494,9 +643,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnReadReceiptCallback<F>> void registerOnReadReceiptCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnReadReceiptCallback(callback);
-		}
+		this.onReadReceiptCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -507,27 +654,21 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnReadReceiptCallback<F>> void setOnReadReceiptcallbacks(
 			List<T> callbacks) {
-		clearOnReadReceiptCallbacks();
-		registerOnReadReceiptCallbacks(callbacks);
+		this.onReadReceiptCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            the friend who changed their method
 	 * @param statusmessage
 	 *            the friend's new status message
 	 */
-	@SuppressWarnings("unused")
-	private void onStatusMessage(int friendnumber, byte[] statusmessage) {
-		String newStatus = JTox.getByteString(statusmessage);
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		synchronized (this.onStatusMessageCallbacks) {
-			for (OnStatusMessageCallback<F> cb : this.onStatusMessageCallbacks) {
-				cb.execute(friend, newStatus);
-			}
-		}
+	void onStatusMessage(int friendnumber, String statusmessage) {
+		dispatch(ToxEvent.Type.STATUS_MESSAGE, friendnumber, statusmessage,
+				null, 0);
 	}
 
 	/**
@@ -567,9 +708,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnStatusMessageCallback<F>> void registerOnStatusMessageCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnStatusMessageCallback(callback);
-		}
+		this.onStatusMessageCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -580,26 +719,20 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnStatusMessageCallback<F>> void setOnStatusMessageCallbacks(
 			List<T> callbacks) {
-		clearOnStatusMessageCallbacks();
-		registerOnStatusMessageCallbacks(callbacks);
+		this.onStatusMessageCallbacks.set(callbacks);
 	}
 
 	/**
-	 * Hook for native API to invoke callback methods
+	 * Hook for {@link ToxEventDispatcher} to invoke callback methods. Called once for every
+	 * event received from the native API
 	 * 
 	 * @param friendnumber
 	 *            the friend who changed their status
 	 * @param status
 	 *            the new status
 	 */
-	@SuppressWarnings("unused")
-	private void onUserStatus(int friendnumber, ToxUserStatus status) {
-		F friend = this.friendlist.getByFriendNumber(friendnumber);
-		synchronized (this.onUserStatusCallbacks) {
-			for (OnUserStatusCallback<F> cb : this.onUserStatusCallbacks) {
-				cb.execute(friend, status);
-			}
-		}
+	void onUserStatus(int friendnumber, ToxUserStatus status) {
+		dispatch(ToxEvent.Type.USER_STATUS, friendnumber, null, status, 0);
 	}
 
 	/**
@@ -637,9 +770,7 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnUserStatusCallback<F>> void registerOnUserStatusCallbacks(
 			List<T> callbacks) {
-		for (T callback : callbacks) {
-			registerOnUserStatusCallback(callback);
-		}
+		this.onUserStatusCallbacks.addAll(callbacks);
 	}
 
 	/**
@@ -650,7 +781,6 @@ public class CallbackHandler<F extends ToxFriend> {
 	 */
 	public <T extends OnUserStatusCallback<F>> void setOnUserStatusCallbacks(
 			List<T> callbacks) {
-		clearOnUserStatusCallbacks();
-		registerOnUserStatusCallbacks(callbacks);
+		this.onUserStatusCallbacks.set(callbacks);
 	}
 }
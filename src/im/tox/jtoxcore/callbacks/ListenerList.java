@@ -0,0 +1,91 @@
+/* ListenerList.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Copy-on-write list of listeners. Reading takes no lock and allocates
+ * nothing: {@link #get()} returns the current array, which is never modified
+ * afterwards. Changes copy the array under the list's own lock, so they never
+ * block readers.
+ * 
+ * @param <T>
+ *            the listener type
+ */
+final class ListenerList<T> {
+
+	private static final Object[] EMPTY = new Object[0];
+
+	private volatile Object[] listeners = EMPTY;
+
+	/**
+	 * @return the current listeners. The array must not be modified.
+	 */
+	Object[] get() {
+		return this.listeners;
+	}
+
+	synchronized void add(T listener) {
+		Object[] old = this.listeners;
+		Object[] copy = Arrays.copyOf(old, old.length + 1);
+		copy[old.length] = listener;
+		this.listeners = copy;
+	}
+
+	synchronized void addAll(Collection<? extends T> listeners) {
+		Object[] old = this.listeners;
+		Object[] added = listeners.toArray();
+		Object[] copy = Arrays.copyOf(old, old.length + added.length);
+		System.arraycopy(added, 0, copy, old.length, added.length);
+		this.listeners = copy;
+	}
+
+	/**
+	 * Remove the first occurrence of the given listener
+	 * 
+	 * @return <code>true</code> if the listener was found
+	 */
+	synchronized boolean remove(Object listener) {
+		Object[] old = this.listeners;
+		for (int i = 0; i < old.length; i++) {
+			if (listener == null ? old[i] == null : listener.equals(old[i])) {
+				Object[] copy = new Object[old.length - 1];
+				System.arraycopy(old, 0, copy, 0, i);
+				System.arraycopy(old, i + 1, copy, i, old.length - i - 1);
+				this.listeners = copy;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	synchronized void set(Collection<? extends T> listeners) {
+		Object[] array = listeners.toArray();
+		this.listeners = Arrays.copyOf(array, array.length, Object[].class);
+	}
+
+	synchronized void clear() {
+		this.listeners = EMPTY;
+	}
+}
@@ -0,0 +1,356 @@
+/* StripedExecutor.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor that runs the callbacks of different friends in parallel, while
+ * keeping the events of each friend in order.
+ * <p/>
+ * Events are spread across a fixed number of lanes by friend number. Every lane
+ * has its own thread and a bounded queue, so the events of one friend always
+ * run one after another, in the order they were received, and events of
+ * friends on different lanes run concurrently. Friend requests are spread by
+ * public key. Tasks that are not events of a {@link CallbackHandler} are spread
+ * by identity.
+ * <p/>
+ * If the queue of a lane is full, {@link #execute(Runnable)} waits for space.
+ * The thread calling {@link im.tox.jtoxcore.JTox#doTox()} then holds the
+ * instance lock while waiting, so callbacks run by this executor must not call
+ * methods of the instance that take the lock. They should use the enqueue
+ * methods of {@link im.tox.jtoxcore.JTox} instead, which never block.
+ * 
+ * @see CallbackHandler#setExecutor(Executor)
+ */
+public final class StripedExecutor implements Executor {
+
+	/**
+	 * Default capacity of each lane's queue
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final Runnable SHUTDOWN = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	/**
+	 * Bit of {@link Lane#state} set once the lane has been shut down
+	 */
+	private static final int CLOSED = 1 << 30;
+
+	private final Lane[] lanes;
+	private final int capacity;
+
+	/**
+	 * A single lane thread and its queue
+	 */
+	private static final class Lane extends Thread {
+		final BlockingQueue<Runnable> queue;
+		final AtomicInteger maxDepth = new AtomicInteger();
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong waits = new AtomicLong();
+
+		/**
+		 * Number of producers currently queueing tasks, plus {@link #CLOSED}
+		 * once the lane has been shut down. The shutdown sentinel is queued by
+		 * whoever leaves the state at exactly CLOSED, so no task is ever
+		 * queued after it.
+		 */
+		final AtomicInteger state = new AtomicInteger();
+
+		Lane(int index, int capacity) {
+			super("ToxCallbackLane-" + index);
+			this.queue = new ArrayBlockingQueue<Runnable>(capacity);
+			setDaemon(true);
+		}
+
+		/**
+		 * Start queueing a task
+		 * 
+		 * @return <code>false</code> if the lane has been shut down
+		 */
+		boolean enter() {
+			while (true) {
+				int state = this.state.get();
+				if ((state & CLOSED) != 0) {
+					return false;
+				}
+				if (this.state.compareAndSet(state, state + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Finish queueing a task started with {@link #enter()}
+		 */
+		void exit() {
+			if (this.state.decrementAndGet() == CLOSED) {
+				put(SHUTDOWN);
+			}
+		}
+
+		/**
+		 * Stop accepting tasks, and terminate once all queued tasks have run
+		 */
+		void close() {
+			while (true) {
+				int state = this.state.get();
+				if ((state & CLOSED) != 0) {
+					return;
+				}
+				if (this.state.compareAndSet(state, state | CLOSED)) {
+					if (state == 0) {
+						put(SHUTDOWN);
+					}
+					return;
+				}
+			}
+		}
+
+		void put(Runnable task) {
+			if (!this.queue.offer(task)) {
+				this.waits.incrementAndGet();
+				boolean interrupted = false;
+				while (true) {
+					try {
+						this.queue.put(task);
+						break;
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			int depth = this.queue.size();
+			int max;
+			while (depth > (max = this.maxDepth.get())
+					&& !this.maxDepth.compareAndSet(max, depth)) {
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Runnable task;
+				try {
+					task = this.queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if (task == SHUTDOWN) {
+					return;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// Keep the lane running for the other friends
+					getUncaughtExceptionHandler().uncaughtException(this, e);
+				}
+				this.completed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Creates a striped executor with one lane per available processor and
+	 * the default capacity
+	 */
+	public StripedExecutor() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a striped executor. The lane threads are daemon threads and
+	 * started right away.
+	 * 
+	 * @param lanes
+	 *            the number of lanes
+	 * @param capacity
+	 *            the maximum number of events waiting in each lane
+	 */
+	public StripedExecutor(int lanes, int capacity) {
+		if (lanes <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.capacity = capacity;
+		this.lanes = new Lane[lanes];
+		for (int i = 0; i < lanes; i++) {
+			this.lanes[i] = new Lane(i, capacity);
+		}
+		for (Lane lane : this.lanes) {
+			lane.start();
+		}
+	}
+
+	/**
+	 * Run the given task on the lane of its friend
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor has been shut down
+	 */
+	@Override
+	public void execute(Runnable command) {
+		int key;
+		if (command instanceof ToxEvent) {
+			key = ((ToxEvent<?>) command).key();
+		} else {
+			key = System.identityHashCode(command);
+		}
+		execute(key, command);
+	}
+
+	/**
+	 * Run the given task on the lane of the given key. Tasks with the same key
+	 * run in the order they were submitted.
+	 * 
+	 * @param key
+	 *            the key, such as a friend number
+	 * @param command
+	 *            the task
+	 * @throws RejectedExecutionException
+	 *             if the executor has been shut down
+	 */
+	public void execute(int key, Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		Lane lane = this.lanes[laneOf(key)];
+		if (!lane.enter()) {
+			throw new RejectedExecutionException("Executor is shut down");
+		}
+		try {
+			lane.put(command);
+		} finally {
+			lane.exit();
+		}
+	}
+
+	/**
+	 * @return the number of lanes
+	 */
+	public int getLaneCount() {
+		return this.lanes.length;
+	}
+
+	/**
+	 * @return the maximum number of events waiting in each lane
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * @param lane
+	 *            index of the lane, from 0 to {@link #getLaneCount()} - 1
+	 * @return the number of events currently waiting in the given lane
+	 */
+	public int getQueueDepth(int lane) {
+		return this.lanes[lane].queue.size();
+	}
+
+	/**
+	 * @param lane
+	 *            index of the lane, from 0 to {@link #getLaneCount()} - 1
+	 * @return the highest number of events that have been waiting in the
+	 *         given lane at once
+	 */
+	public int getMaxQueueDepth(int lane) {
+		return this.lanes[lane].maxDepth.get();
+	}
+
+	/**
+	 * @param lane
+	 *            index of the lane, from 0 to {@link #getLaneCount()} - 1
+	 * @return the number of events the given lane has run
+	 */
+	public long getCompletedCount(int lane) {
+		return this.lanes[lane].completed.get();
+	}
+
+	/**
+	 * @param lane
+	 *            index of the lane, from 0 to {@link #getLaneCount()} - 1
+	 * @return how often an event had to wait because the given lane was full
+	 */
+	public long getFullCount(int lane) {
+		return this.lanes[lane].waits.get();
+	}
+
+	/**
+	 * @param key
+	 *            the key, such as a friend number
+	 * @return the index of the lane running tasks with the given key
+	 */
+	public int laneOf(int key) {
+		int h = key * 0x9E3779B9;
+		h ^= h >>> 16;
+		return (h & Integer.MAX_VALUE) % this.lanes.length;
+	}
+
+	/**
+	 * Stop accepting new events. Events already waiting still run, then the
+	 * lane threads terminate.
+	 */
+	public void shutdown() {
+		for (Lane lane : this.lanes) {
+			lane.close();
+		}
+	}
+
+	/**
+	 * Wait until all lanes have terminated after {@link #shutdown()}
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of timeout
+	 * @return <code>true</code> if all lanes have terminated
+	 * @throws InterruptedException
+	 *             if the calling thread was interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		for (Lane lane : this.lanes) {
+			long remaining = end - System.nanoTime();
+			if (remaining > 0) {
+				TimeUnit.NANOSECONDS.timedJoin(lane, remaining);
+			}
+			if (lane.isAlive()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
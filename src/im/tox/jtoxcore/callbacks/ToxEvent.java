@@ -0,0 +1,223 @@
+/* ToxEvent.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import im.tox.jtoxcore.ToxFriend;
+import im.tox.jtoxcore.ToxId;
+import im.tox.jtoxcore.ToxUserStatus;
+
+/**
+ * A decoded event, handed to the executor of a {@link CallbackHandler} and
+ * published by {@link ToxEventPublisher}. Running it invokes the callbacks
+ * registered for its type with the handler that created it, and publishes it
+ * to the handler's publishers.
+ * 
+ * @param <F>
+ *            Friend type of the CallbackHandler
+ */
+public final class ToxEvent<F extends ToxFriend> implements Runnable {
+
+	/**
+	 * The kinds of events
+	 */
+	public enum Type {
+		/**
+		 * A friend request, see {@link #getPublicKey()} and {@link #getText()}
+		 */
+		FRIEND_REQUEST,
+
+		/**
+		 * A message, see {@link #getText()}
+		 */
+		MESSAGE,
+
+		/**
+		 * An action, see {@link #getText()}
+		 */
+		ACTION,
+
+		/**
+		 * A friend changed their name, see {@link #getText()}
+		 */
+		NAME_CHANGE,
+
+		/**
+		 * A friend changed their status message, see {@link #getText()}
+		 */
+		STATUS_MESSAGE,
+
+		/**
+		 * A friend changed their user status, see {@link #getUserStatus()}
+		 */
+		USER_STATUS,
+
+		/**
+		 * A friend read a message, see {@link #getReceipt()}
+		 */
+		READ_RECEIPT,
+
+		/**
+		 * A friend came online or went offline, see {@link #isOnline()}
+		 */
+		CONNECTION_STATUS
+	}
+
+	final CallbackHandler<F> handler;
+	final Type type;
+
+	/**
+	 * The number of the friend the event is about, -1 for friend requests
+	 */
+	final int friendnumber;
+
+	/**
+	 * The friend the event is about, null for friend requests
+	 */
+	final F friend;
+
+	/**
+	 * The public key of a friend request
+	 */
+	final ToxId publicKey;
+
+	/**
+	 * The message, action, name or status message
+	 */
+	final String text;
+
+	/**
+	 * The new user status
+	 */
+	final ToxUserStatus status;
+
+	/**
+	 * The receipt number, or 1 if a friend came online and 0 if they went
+	 * offline
+	 */
+	final int value;
+
+	ToxEvent(CallbackHandler<F> handler, Type type, int friendnumber,
+			F friend, ToxId publicKey, String text, ToxUserStatus status,
+			int value) {
+		this.handler = handler;
+		this.type = type;
+		this.friendnumber = friendnumber;
+		this.friend = friend;
+		this.publicKey = publicKey;
+		this.text = text;
+		this.status = status;
+		this.value = value;
+	}
+
+	/**
+	 * @return the kind of this event
+	 */
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the number of the friend the event is about, or -1 for friend
+	 *         requests
+	 */
+	public int getFriendnumber() {
+		return this.friendnumber;
+	}
+
+	/**
+	 * @return the friend the event is about, or null for friend requests
+	 */
+	public F getFriend() {
+		return this.friend;
+	}
+
+	/**
+	 * @return the public key of the sender of a friend request, null for
+	 *         other events
+	 */
+	public ToxId getPublicKey() {
+		return this.publicKey;
+	}
+
+	/**
+	 * @return the message, action, friend request message, new name or new
+	 *         status message, null for other events
+	 */
+	public String getText() {
+		return this.text;
+	}
+
+	/**
+	 * @return the new user status, null for other events
+	 */
+	public ToxUserStatus getUserStatus() {
+		return this.status;
+	}
+
+	/**
+	 * @return the number of the read message, 0 for other events
+	 */
+	public int getReceipt() {
+		return this.type == Type.READ_RECEIPT ? this.value : 0;
+	}
+
+	/**
+	 * @return <code>true</code> if the friend came online, <code>false</code>
+	 *         if they went offline or for other events
+	 */
+	public boolean isOnline() {
+		return this.type == Type.CONNECTION_STATUS && this.value != 0;
+	}
+
+	/**
+	 * @return a key that is the same for all events about the same friend
+	 */
+	int key() {
+		return this.publicKey != null ? this.publicKey.hashCode()
+				: this.friendnumber;
+	}
+
+	/**
+	 * @return <code>true</code> if this event reports the new state of a
+	 *         friend, so a later event of the same type and friend makes it
+	 *         obsolete
+	 */
+	boolean isStateChange() {
+		switch (this.type) {
+		case NAME_CHANGE:
+		case STATUS_MESSAGE:
+		case USER_STATUS:
+		case CONNECTION_STATUS:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Invoke the callbacks registered for this event and publish it
+	 */
+	@Override
+	public void run() {
+		this.handler.deliver(this);
+	}
+}
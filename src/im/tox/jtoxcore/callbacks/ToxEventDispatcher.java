@@ -0,0 +1,115 @@
+/* ToxEventDispatcher.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import im.tox.jtoxcore.ToxFriend;
+import im.tox.jtoxcore.ToxId;
+import im.tox.jtoxcore.ToxUserStatus;
+
+/**
+ * Internal bridge between {@link im.tox.jtoxcore.JTox} and the event hooks of
+ * a {@link CallbackHandler}. The hooks are package private, so that
+ * applications cannot inject events into a handler by accident; JTox reaches
+ * them through this class instead. This class is not part of the public API.
+ * 
+ * @param <F>
+ *            Friend type of the handler
+ */
+public final class ToxEventDispatcher<F extends ToxFriend> {
+
+	private final CallbackHandler<F> handler;
+
+	private ToxEventDispatcher(CallbackHandler<F> handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Get a dispatcher for the given handler
+	 * 
+	 * @param handler
+	 *            the handler to dispatch events to
+	 * @return the dispatcher
+	 */
+	public static <F extends ToxFriend> ToxEventDispatcher<F> forHandler(
+			CallbackHandler<F> handler) {
+		if (handler == null) {
+			throw new NullPointerException("handler");
+		}
+		return new ToxEventDispatcher<F>(handler);
+	}
+
+	/**
+	 * @see CallbackHandler#onAction(int, String)
+	 */
+	public void onAction(int friendnumber, String action) {
+		this.handler.onAction(friendnumber, action);
+	}
+
+	/**
+	 * @see CallbackHandler#onConnectionStatus(int, boolean)
+	 */
+	public void onConnectionStatus(int friendnumber, boolean online) {
+		this.handler.onConnectionStatus(friendnumber, online);
+	}
+
+	/**
+	 * @see CallbackHandler#onFriendRequest(ToxId, String)
+	 */
+	public void onFriendRequest(ToxId publicKey, String message) {
+		this.handler.onFriendRequest(publicKey, message);
+	}
+
+	/**
+	 * @see CallbackHandler#onMessage(int, String)
+	 */
+	public void onMessage(int friendnumber, String message) {
+		this.handler.onMessage(friendnumber, message);
+	}
+
+	/**
+	 * @see CallbackHandler#onNameChange(int, String)
+	 */
+	public void onNameChange(int friendnumber, String newname) {
+		this.handler.onNameChange(friendnumber, newname);
+	}
+
+	/**
+	 * @see CallbackHandler#onReadReceipt(int, int)
+	 */
+	public void onReadReceipt(int friendnumber, int receipt) {
+		this.handler.onReadReceipt(friendnumber, receipt);
+	}
+
+	/**
+	 * @see CallbackHandler#onStatusMessage(int, String)
+	 */
+	public void onStatusMessage(int friendnumber, String statusmessage) {
+		this.handler.onStatusMessage(friendnumber, statusmessage);
+	}
+
+	/**
+	 * @see CallbackHandler#onUserStatus(int, ToxUserStatus)
+	 */
+	public void onUserStatus(int friendnumber, ToxUserStatus status) {
+		this.handler.onUserStatus(friendnumber, status);
+	}
+}
@@ -0,0 +1,304 @@
+/* ToxEventPublisher.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+import im.tox.jtoxcore.ToxFriend;
+
+import java.util.ArrayDeque;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the events of a {@link CallbackHandler} to subscribers, as an
+ * alternative to registering callbacks. Registered callbacks keep working:
+ * every event is first passed to the callbacks, then published, on the thread
+ * the handler's executor runs it on.
+ * <p/>
+ * Every subscriber has its own buffer for events it has not requested yet. If
+ * a subscriber falls so far behind that its buffer overflows, its
+ * subscription fails with an {@link IllegalStateException}; the event loop
+ * never waits for subscribers. Choose the buffer size according to the
+ * bursts the subscribers must be able to absorb.
+ * <p/>
+ * Events are delivered to a subscriber either on the thread publishing them
+ * or on the thread calling {@link ToxSubscription#request(long)}, but never
+ * concurrently.
+ * 
+ * @param <F>
+ *            Friend type of the CallbackHandler
+ */
+public final class ToxEventPublisher<F extends ToxFriend> implements
+		ToxPublisher<ToxEvent<F>> {
+
+	/**
+	 * Default number of events buffered for each subscriber
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+	private final CallbackHandler<F> handler;
+	private final int bufferSize;
+	private final ListenerList<Subscription> subscriptions = new ListenerList<Subscription>();
+	private volatile boolean closed;
+
+	/**
+	 * Creates a publisher for the events of the given handler with the
+	 * default buffer size
+	 * 
+	 * @param handler
+	 *            the handler
+	 */
+	public ToxEventPublisher(CallbackHandler<F> handler) {
+		this(handler, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a publisher for the events of the given handler
+	 * 
+	 * @param handler
+	 *            the handler
+	 * @param bufferSize
+	 *            the number of events buffered for each subscriber
+	 */
+	public ToxEventPublisher(CallbackHandler<F> handler, int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.handler = handler;
+		this.bufferSize = bufferSize;
+		handler.addPublisher(this);
+	}
+
+	/**
+	 * Subscribe to all events
+	 */
+	@Override
+	public void subscribe(ToxSubscriber<? super ToxEvent<F>> subscriber) {
+		subscribe(subscriber, EnumSet.allOf(ToxEvent.Type.class));
+	}
+
+	/**
+	 * Subscribe to the events of the given types
+	 * 
+	 * @param subscriber
+	 *            the subscriber
+	 * @param types
+	 *            the types of events to receive
+	 */
+	public void subscribe(ToxSubscriber<? super ToxEvent<F>> subscriber,
+			Set<ToxEvent.Type> types) {
+		if (subscriber == null) {
+			throw new NullPointerException();
+		}
+		Subscription subscription = new Subscription(subscriber,
+				EnumSet.copyOf(types));
+		subscriber.onSubscribe(subscription);
+		this.subscriptions.add(subscription);
+		// The subscriber may have cancelled, or failed the subscription with
+		// an invalid request, from onSubscribe, before it was added
+		if (subscription.isFinished()) {
+			this.subscriptions.remove(subscription);
+		} else if (this.closed) {
+			subscription.terminate(null);
+		}
+	}
+
+	/**
+	 * @return the number of active subscriptions
+	 */
+	public int getSubscriberCount() {
+		return this.subscriptions.get().length;
+	}
+
+	/**
+	 * Stop publishing. Subscribers receive the events already buffered for
+	 * them, then {@link ToxSubscriber#onComplete()}.
+	 */
+	@SuppressWarnings("unchecked")
+	public void close() {
+		this.closed = true;
+		this.handler.removePublisher(this);
+		for (Object subscription : this.subscriptions.get()) {
+			((Subscription) subscription).terminate(null);
+		}
+	}
+
+	/**
+	 * Called by the handler for every event
+	 */
+	@SuppressWarnings("unchecked")
+	void publish(ToxEvent<F> event) {
+		for (Object subscription : this.subscriptions.get()) {
+			((Subscription) subscription).offer(event);
+		}
+	}
+
+	private final class Subscription implements ToxSubscription {
+		private final ToxSubscriber<? super ToxEvent<F>> subscriber;
+		private final Set<ToxEvent.Type> types;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+
+		/**
+		 * Guarded by this
+		 */
+		private final ArrayDeque<ToxEvent<F>> buffer = new ArrayDeque<ToxEvent<F>>();
+		private boolean terminated;
+		private Throwable error;
+
+		/**
+		 * Only written by the thread draining
+		 */
+		private volatile boolean done;
+
+		private volatile boolean cancelled;
+
+		Subscription(ToxSubscriber<? super ToxEvent<F>> subscriber,
+				Set<ToxEvent.Type> types) {
+			this.subscriber = subscriber;
+			this.types = types;
+		}
+
+		void offer(ToxEvent<F> event) {
+			if (this.cancelled || !this.types.contains(event.type)) {
+				return;
+			}
+			synchronized (this) {
+				if (this.terminated) {
+					return;
+				}
+				if (this.buffer.size() >= ToxEventPublisher.this.bufferSize) {
+					// Fail right away instead of after the buffered events
+					this.buffer.clear();
+					this.terminated = true;
+					this.error = new IllegalStateException(
+							"Subscriber buffer overflow, more than "
+									+ ToxEventPublisher.this.bufferSize
+									+ " events not requested");
+				} else {
+					this.buffer.add(event);
+				}
+			}
+			drain();
+		}
+
+		/**
+		 * @return <code>true</code> if the subscription was cancelled, or the
+		 *         final signal was delivered
+		 */
+		boolean isFinished() {
+			return this.cancelled || this.done;
+		}
+
+		void terminate(Throwable cause) {
+			synchronized (this) {
+				if (this.terminated) {
+					return;
+				}
+				this.terminated = true;
+				this.error = cause;
+			}
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				synchronized (this) {
+					this.buffer.clear();
+				}
+				terminate(new IllegalArgumentException(
+						"Non-positive request: " + n));
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = this.requested.get();
+				if (current == Long.MAX_VALUE) {
+					return;
+				}
+				next = current + n;
+				if (next < 0) {
+					next = Long.MAX_VALUE;
+				}
+			} while (!this.requested.compareAndSet(current, next));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			this.cancelled = true;
+			ToxEventPublisher.this.subscriptions.remove(this);
+			synchronized (this) {
+				this.buffer.clear();
+			}
+		}
+
+		/**
+		 * Deliver as many buffered events as requested, and the final signal
+		 * once the buffer is empty. Only one thread drains at a time; others
+		 * arriving meanwhile make it loop once more.
+		 */
+		private void drain() {
+			if (this.wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				while (!this.cancelled && !this.done) {
+					ToxEvent<F> event = null;
+					boolean finished = false;
+					Throwable cause = null;
+					synchronized (this) {
+						if (this.requested.get() > 0) {
+							event = this.buffer.poll();
+						}
+						if (event == null && this.terminated
+								&& (this.buffer.isEmpty() || this.error != null)) {
+							finished = true;
+							cause = this.error;
+						}
+					}
+					if (event != null) {
+						if (this.requested.get() != Long.MAX_VALUE) {
+							this.requested.decrementAndGet();
+						}
+						this.subscriber.onNext(event);
+					} else if (finished) {
+						this.done = true;
+						ToxEventPublisher.this.subscriptions.remove(this);
+						if (cause != null) {
+							this.subscriber.onError(cause);
+						} else {
+							this.subscriber.onComplete();
+						}
+					} else {
+						break;
+					}
+				}
+				missed = this.wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/* ToxPublisher.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+/**
+ * A source of items that subscribers receive as they request them. This has
+ * the same contract as {@code java.util.concurrent.Flow.Publisher} and
+ * {@code org.reactivestreams.Publisher}, which this library can not use
+ * because it supports Java versions and Android releases without them.
+ * Adapting it to either takes a few lines.
+ * 
+ * @param <T>
+ *            the type of the published items
+ */
+public interface ToxPublisher<T> {
+
+	/**
+	 * Add the given subscriber. It first receives
+	 * {@link ToxSubscriber#onSubscribe(ToxSubscription)}, and items only after
+	 * requesting them through the subscription.
+	 * 
+	 * @param subscriber
+	 *            the subscriber
+	 */
+	void subscribe(ToxSubscriber<? super T> subscriber);
+}
@@ -0,0 +1,63 @@
+/* ToxSubscriber.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+/**
+ * Receiver of items from a {@link ToxPublisher}. This has the same contract as
+ * {@code java.util.concurrent.Flow.Subscriber}. The methods are never called
+ * concurrently for the same subscription.
+ * 
+ * @param <T>
+ *            the type of the received items
+ */
+public interface ToxSubscriber<T> {
+
+	/**
+	 * Called once before any other method
+	 * 
+	 * @param subscription
+	 *            the subscription to request items through
+	 */
+	void onSubscribe(ToxSubscription subscription);
+
+	/**
+	 * Called for every item, at most as often as requested
+	 * 
+	 * @param item
+	 *            the item
+	 */
+	void onNext(T item);
+
+	/**
+	 * Called if the subscription failed. No further methods are called.
+	 * 
+	 * @param throwable
+	 *            the cause
+	 */
+	void onError(Throwable throwable);
+
+	/**
+	 * Called when the publisher has no more items. No further methods are
+	 * called.
+	 */
+	void onComplete();
+}
@@ -0,0 +1,43 @@
+/* ToxSubscription.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package im.tox.jtoxcore.callbacks;
+
+/**
+ * Link between a {@link ToxPublisher} and one of its {@link ToxSubscriber}s.
+ * This has the same contract as {@code java.util.concurrent.Flow.Subscription}.
+ */
+public interface ToxSubscription {
+
+	/**
+	 * Allow the publisher to deliver up to n more items. Requests add up;
+	 * {@link Long#MAX_VALUE} means no limit.
+	 * 
+	 * @param n
+	 *            the number of items, must be positive
+	 */
+	void request(long n);
+
+	/**
+	 * Stop receiving items. Items may still arrive for a short while.
+	 */
+	void cancel();
+}
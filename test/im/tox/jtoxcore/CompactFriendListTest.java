@@ -0,0 +1,246 @@
+/* CompactFriendListTest.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the text storage and the public key table of
+ * {@link CompactFriendList} over many rename, remove and re-add cycles
+ */
+public class CompactFriendListTest {
+
+	/**
+	 * Must match CompactFriendList.MIN_COMPACT_SIZE
+	 */
+	private static final int MIN_COMPACT_SIZE = 4096;
+
+	private static final String HEX = "0123456789ABCDEF";
+
+	/**
+	 * Create a random public key whose first bytes are given, so that keys
+	 * can be made to collide in the key table
+	 */
+	private static String key(Random random, int... prefix) {
+		StringBuilder sb = new StringBuilder(2 * ToxId.PUBLIC_KEY_SIZE);
+		for (int i = 0; i < ToxId.PUBLIC_KEY_SIZE; i++) {
+			int b = i < prefix.length ? prefix[i] : random.nextInt(256);
+			sb.append(HEX.charAt(b >> 4)).append(HEX.charAt(b & 0xf));
+		}
+		return sb.toString();
+	}
+
+	private static void assertKeys(CompactFriendList list,
+			Map<String, Integer> expected, List<String> removed) {
+		for (Map.Entry<String, Integer> e : expected.entrySet()) {
+			CompactToxFriend friend = list.getById(e.getKey());
+			assertNotNull(e.getKey(), friend);
+			assertEquals(e.getValue().intValue(), friend.getFriendnumber());
+			assertEquals(e.getKey(), friend.getId());
+		}
+		for (String key : removed) {
+			assertNull(key, list.getById(key));
+		}
+	}
+
+	@Test
+	public void collidingKeysSurviveRemoval() throws Exception {
+		Random random = new Random(1);
+		CompactFriendList list = new CompactFriendList();
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		List<String> removed = new ArrayList<String>();
+
+		// Four overlapping clusters around the end of the table, so that
+		// probe sequences wrap around and removals have to shift entries
+		// across the wrap
+		int[] homes = { 0x1e, 0x1f, 0x00, 0x01 };
+		int count = 15;
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < count; i++) {
+				if (list.getByFriendNumber(i) != null) {
+					continue;
+				}
+				String key = key(random, homes[random.nextInt(homes.length)],
+						0, 0, 0);
+				list.addFriend(i).setId(key);
+				expected.put(key, i);
+			}
+			assertKeys(list, expected, removed);
+
+			List<String> keys = new ArrayList<String>(expected.keySet());
+			Collections.shuffle(keys, random);
+			for (String key : keys.subList(0, 1 + random.nextInt(count))) {
+				list.removeFriend(expected.remove(key));
+				removed.add(key);
+				assertKeys(list, expected, removed);
+			}
+		}
+	}
+
+	@Test
+	public void keyCyclesMatchMap() throws Exception {
+		Random random = new Random(2);
+		CompactFriendList list = new CompactFriendList();
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		Map<Integer, String> byNumber = new HashMap<Integer, String>();
+		List<String> removed = new ArrayList<String>();
+
+		for (int n = 0; n < 20000; n++) {
+			int friendnumber = random.nextInt(300);
+			String old = byNumber.remove(friendnumber);
+			if (old != null) {
+				expected.remove(old);
+				removed.add(old);
+			}
+			switch (random.nextInt(3)) {
+			case 0:
+				list.removeFriend(friendnumber);
+				break;
+			case 1:
+				// Only the low bits of the first bytes select the home slot
+				String key = key(random, random.nextInt(4), 0, 0, 0);
+				list.addFriendIfNotExists(friendnumber).setId(key);
+				expected.put(key, friendnumber);
+				byNumber.put(friendnumber, key);
+				break;
+			default:
+				list.addFriendIfNotExists(friendnumber).setId(null);
+				break;
+			}
+			if (n % 1000 == 0) {
+				assertKeys(list, expected, removed);
+			}
+		}
+		assertKeys(list, expected, removed);
+		assertNull(list.getById(null));
+		assertNull(list.getById("not a key"));
+	}
+
+	@Test
+	public void renamesCompactText() throws Exception {
+		Random random = new Random(3);
+		CompactFriendList list = new CompactFriendList();
+		int count = 50;
+		String[] names = new String[count];
+		String[] statusMessages = new String[count];
+		for (int i = 0; i < count; i++) {
+			list.addFriend(i);
+		}
+
+		for (int round = 0; round < 200; round++) {
+			for (int i = 0; i < count; i++) {
+				CompactToxFriend friend = list.getByFriendNumber(i);
+				names[i] = random.nextInt(10) == 0 ? null : "Friend " + i
+						+ " round " + round + " ☃";
+				friend.setName(names[i]);
+				if (random.nextBoolean()) {
+					statusMessages[i] = random.nextInt(10) == 0 ? null
+							: "Status " + random.nextInt() + " 😀";
+					friend.setStatusMessage(statusMessages[i]);
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				CompactToxFriend friend = list.getByFriendNumber(i);
+				assertEquals(names[i], friend.getName());
+				assertEquals(statusMessages[i], friend.getStatusMessage());
+			}
+		}
+		// 200 rounds wrote more than 500 KB of text, of which only the last
+		// round is live
+		assertTrue("text storage was not compacted: "
+				+ list.getTextCapacity(),
+				list.getTextCapacity() <= 4 * MIN_COMPACT_SIZE);
+	}
+
+	@Test
+	public void removeAndReAddCycles() throws Exception {
+		Random random = new Random(4);
+		CompactFriendList list = new CompactFriendList();
+		int count = 64;
+		String[] names = new String[count];
+		String[] keys = new String[count];
+
+		for (int round = 0; round < 300; round++) {
+			for (int i = 0; i < count; i++) {
+				if (names[i] != null && random.nextInt(3) == 0) {
+					list.removeFriend(i);
+					assertNull(list.getByFriendNumber(i));
+					assertNull(list.getById(keys[i]));
+					names[i] = null;
+					keys[i] = null;
+				} else {
+					CompactToxFriend friend = list.addFriendIfNotExists(i);
+					if (names[i] == null) {
+						// A re-added friend starts out empty
+						assertNull(friend.getName());
+						assertNull(friend.getId());
+						keys[i] = key(random, i & 3, 0, 0, 0);
+						friend.setId(keys[i]);
+					}
+					names[i] = "Name " + random.nextInt(100000) + " ü";
+					friend.setName(names[i]);
+				}
+			}
+			int size = 0;
+			for (int i = 0; i < count; i++) {
+				CompactToxFriend friend = list.getByFriendNumber(i);
+				if (names[i] == null) {
+					assertNull(friend);
+					continue;
+				}
+				size++;
+				assertEquals(names[i], friend.getName());
+				assertEquals(i, list.getById(keys[i]).getFriendnumber());
+				assertEquals(1 + countOthers(names, i),
+						list.getByName(names[i], false).size());
+			}
+			assertEquals(size, list.size());
+		}
+		assertTrue("text storage was not compacted: "
+				+ list.getTextCapacity(),
+				list.getTextCapacity() <= 4 * MIN_COMPACT_SIZE);
+	}
+
+	/**
+	 * @return the number of other friends with the same name as friend i
+	 */
+	private static int countOthers(String[] names, int i) {
+		int others = 0;
+		for (int j = 0; j < names.length; j++) {
+			if (j != i && names[i].equals(names[j])) {
+				others++;
+			}
+		}
+		return others;
+	}
+}
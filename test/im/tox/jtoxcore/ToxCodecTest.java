@@ -0,0 +1,269 @@
+/* ToxCodecTest.java
+ *
+ *  Copyright (C) 2013 Tox project All Rights Reserved.
+ *
+ *  This file is part of jToxcore
+ *
+ *  jToxcore is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jToxcore is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jToxcore.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package im.tox.jtoxcore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link ToxCodec} byte for byte against the JDK's own UTF-8 support,
+ * {@link String#getBytes(String)} and {@link String#String(byte[], String)}
+ */
+public class ToxCodecTest {
+
+	private static final String UTF8 = "UTF-8";
+
+	/**
+	 * Lengths around this size catch off by one errors in buffer sizing
+	 */
+	private static final int BOUNDARY = 256;
+
+	private static final String[] SAMPLES = { "", "a", "Hello, Tox!",
+			"Grüße", "éèê", "中文", "€100",
+			"😀", "smile 😀 again 𝄞",
+			"\ud83d", "\ude00", "a\ud83db", "a\ude00\ud83d", "\ude00\ud83d",
+			"\u0000", "a\u0000b", "\u0000é\u0000", "￿￾﻿",
+			"\u007f\u0080߿ࠀ" };
+
+	private static byte[] jdkEncode(String s)
+			throws UnsupportedEncodingException {
+		return s.getBytes(UTF8);
+	}
+
+	private static String jdkDecode(byte[] b, int offset, int length)
+			throws UnsupportedEncodingException {
+		return new String(b, offset, length, UTF8);
+	}
+
+	private static void assertEncodes(String s)
+			throws UnsupportedEncodingException {
+		byte[] expected = jdkEncode(s);
+		assertArrayEquals(s, expected, ToxCodec.encode(s));
+
+		for (ByteBuffer out : new ByteBuffer[] {
+				ByteBuffer.allocate(expected.length + 3),
+				ByteBuffer.allocateDirect(expected.length + 3) }) {
+			out.position(3);
+			assertEquals(s, expected.length, ToxCodec.encode(s, out));
+			assertEquals(expected.length + 3, out.position());
+			byte[] written = new byte[expected.length];
+			out.position(3);
+			out.get(written);
+			assertArrayEquals(s, expected, written);
+		}
+	}
+
+	private static void assertDecodes(byte[] b)
+			throws UnsupportedEncodingException {
+		String expected = jdkDecode(b, 0, b.length);
+		assertEquals(expected, ToxCodec.decode(b, 0, b.length));
+
+		byte[] padded = new byte[b.length + 5];
+		System.arraycopy(b, 0, padded, 2, b.length);
+		assertEquals(expected, ToxCodec.decode(padded, 2, b.length));
+
+		for (ByteBuffer in : new ByteBuffer[] {
+				ByteBuffer.allocate(padded.length),
+				ByteBuffer.allocateDirect(padded.length) }) {
+			in.put(padded);
+			in.flip();
+			in.position(2);
+			assertEquals(expected, ToxCodec.decode(in, b.length));
+			assertEquals(2 + b.length, in.position());
+			assertEquals(padded.length, in.limit());
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder sb = new StringBuilder(count);
+		for (int i = 0; i < count; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void encodeMatchesJdk() throws Exception {
+		for (String s : SAMPLES) {
+			assertEncodes(s);
+		}
+	}
+
+	@Test
+	public void decodeMatchesJdk() throws Exception {
+		for (String s : SAMPLES) {
+			assertDecodes(jdkEncode(s));
+		}
+	}
+
+	@Test
+	public void surrogatePairEncodesToFourBytes() throws Exception {
+		byte[] b = ToxCodec.encode("😀");
+		assertArrayEquals(new byte[] { (byte) 0xf0, (byte) 0x9f,
+				(byte) 0x98, (byte) 0x80 }, b);
+		assertEquals("😀", ToxCodec.decode(b, 0, b.length));
+	}
+
+	@Test
+	public void unpairedSurrogatesAreReplaced() throws Exception {
+		String[] unpaired = { "\ud800", "\udfff", "x\ud800", "\udc00x",
+				"\ud800\ud800", "\udc00\ud800", "\ud800\u0000" };
+		for (String s : unpaired) {
+			assertEncodes(s);
+		}
+	}
+
+	@Test
+	public void embeddedNulIsKept() throws Exception {
+		byte[] b = ToxCodec.encode("a\u0000b");
+		assertArrayEquals(new byte[] { 'a', 0, 'b' }, b);
+		assertEquals("a\u0000b", ToxCodec.decode(b, 0, b.length));
+		assertEncodes("é\u0000é");
+	}
+
+	@Test
+	public void truncatedSequencesMatchJdk() throws Exception {
+		for (String s : new String[] { "é", "中", "😀",
+				"ab😀", "中😀" }) {
+			byte[] full = jdkEncode(s);
+			for (int length = 0; length <= full.length; length++) {
+				byte[] cut = new byte[length];
+				System.arraycopy(full, 0, cut, 0, length);
+				assertDecodes(cut);
+			}
+		}
+	}
+
+	@Test
+	public void malformedInputMatchesJdk() throws Exception {
+		byte[][] malformed = { { (byte) 0x80 }, { (byte) 0xbf, 'a' },
+				{ (byte) 0xff }, { (byte) 0xfe, (byte) 0xff },
+				{ (byte) 0xc0, (byte) 0x80 }, { (byte) 0xc1, (byte) 0xbf },
+				{ (byte) 0xe0, (byte) 0x80, (byte) 0x80 },
+				{ (byte) 0xed, (byte) 0xa0, (byte) 0x80 },
+				{ (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+				{ (byte) 0xf8, (byte) 0x88, (byte) 0x80, (byte) 0x80 },
+				{ 'a', (byte) 0xe4, 'b' } };
+		for (byte[] b : malformed) {
+			assertDecodes(b);
+		}
+	}
+
+	@Test
+	public void bufferBoundaries() throws Exception {
+		for (int length = BOUNDARY - 2; length <= BOUNDARY + 2; length++) {
+			String ascii = repeat('a', length);
+			assertEncodes(ascii);
+			assertDecodes(jdkEncode(ascii));
+
+			String wide = repeat('中', length);
+			assertEncodes(wide);
+			assertDecodes(jdkEncode(wide));
+
+			// A surrogate pair straddling the boundary
+			String straddling = repeat('a', length - 1) + "😀";
+			assertEncodes(straddling);
+			assertDecodes(jdkEncode(straddling));
+		}
+		String large = repeat('é', 10 * BOUNDARY) + "\ud83d";
+		assertEncodes(large);
+		assertDecodes(jdkEncode(large));
+	}
+
+	@Test
+	public void encodeOverflowLeavesBufferUnchanged() throws Exception {
+		for (String s : new String[] { "abcd", "éé",
+				"a😀" }) {
+			int needed = jdkEncode(s).length;
+			for (ByteBuffer out : new ByteBuffer[] {
+					ByteBuffer.allocate(needed + 1),
+					ByteBuffer.allocateDirect(needed + 1) }) {
+				out.position(2);
+				assertEquals(-1, ToxCodec.encode(s, out));
+				assertEquals(2, out.position());
+				assertEquals(needed + 1, out.limit());
+				for (int i = 0; i < out.capacity(); i++) {
+					assertEquals(0, out.get(i));
+				}
+				out.position(1);
+				assertEquals(needed, ToxCodec.encode(s, out));
+			}
+		}
+	}
+
+	@Test
+	public void decodeUnderflowLeavesBufferUnchanged() {
+		ByteBuffer in = ByteBuffer.wrap(new byte[] { 'a', 'b', 'c' });
+		in.position(1);
+		try {
+			ToxCodec.decode(in, 3);
+			fail("expected BufferUnderflowException");
+		} catch (BufferUnderflowException e) {
+			assertEquals(1, in.position());
+			assertEquals(3, in.limit());
+		}
+	}
+
+	@Test
+	public void randomTextMatchesJdk() throws Exception {
+		Random random = new Random(1);
+		for (int n = 0; n < 20000; n++) {
+			char[] c = new char[random.nextInt(3 * BOUNDARY / 2)];
+			for (int i = 0; i < c.length; i++) {
+				switch (random.nextInt(4)) {
+				case 0:
+					c[i] = (char) random.nextInt(0x80);
+					break;
+				case 1:
+					c[i] = (char) (0xd800 + random.nextInt(0x800));
+					break;
+				default:
+					c[i] = (char) random.nextInt(0x10000);
+					break;
+				}
+			}
+			assertEncodes(new String(c));
+		}
+	}
+
+	@Test
+	public void randomBytesMatchJdk() throws Exception {
+		Random random = new Random(2);
+		for (int n = 0; n < 20000; n++) {
+			byte[] b = new byte[random.nextInt(3 * BOUNDARY / 2)];
+			random.nextBytes(b);
+			if (random.nextBoolean()) {
+				for (int i = 0; i < b.length; i++) {
+					b[i] &= random.nextInt(4) == 0 ? 0xff : 0x7f;
+				}
+			}
+			assertDecodes(b);
+		}
+	}
+}